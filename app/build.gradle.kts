@@ -154,6 +154,13 @@ android {
         shaders = false
     }
 
+    testOptions {
+        unitTests.all {
+            // Opt-in for benchmark tests: ./gradlew test -Pbenchmark
+            it.systemProperty("jdsp.benchmark", project.hasProperty("benchmark").toString())
+        }
+    }
+
     externalNativeBuild {
         cmake {
             path = file("src/main/cpp/CMakeLists.txt")
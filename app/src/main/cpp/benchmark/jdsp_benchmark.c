@@ -0,0 +1,315 @@
+/*
+ * Host benchmark for the libjamesdsp processing chain.
+ *
+ * Measures the processing cost of each effect stage in ns per stereo frame for several sample rates
+ * and buffer sizes. Every stage is measured on a fresh engine instance with only that stage enabled;
+ * the 'baseline' row (limiter and post gain, which are always active) is subtracted to get the
+ * per-stage delta. Load is the share of the buffer period spent processing on this machine.
+ */
+#include <getopt.h>
+#include <math.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include <jdsp_header.h>
+
+typedef int (*stage_setup)(JamesDSPLib* dsp, int param);
+
+typedef struct
+{
+    const char* name;
+    int param;
+    stage_setup setup;
+} stage_t;
+
+static const int SAMPLE_RATES[] = { 44100, 48000, 96000 };
+static const int BUFFER_SIZES[] = { 64, 128, 256, 512, 1024, 2048, 4096, 8192 };
+#define NUM_SAMPLE_RATES (sizeof(SAMPLE_RATES) / sizeof(SAMPLE_RATES[0]))
+#define NUM_BUFFER_SIZES (sizeof(BUFFER_SIZES) / sizeof(BUFFER_SIZES[0]))
+
+static uint32_t rngState = 0x12345678u;
+static float nextNoise(void)
+{
+    rngState = rngState * 1664525u + 1013904223u;
+    return ((float)(rngState >> 8) / (float)(1u << 24)) * 2.0f - 1.0f;
+}
+
+static int setupBaseline(JamesDSPLib* dsp, int param)
+{
+    JLimiterSetCoefficients(dsp, -0.1f, 60.0f);
+    JamesDSPSetPostGain(dsp, 0.0f);
+    return 1;
+}
+
+static int setupMultiEq(JamesDSPLib* dsp, int param)
+{
+    double bands[30] = {
+        25.0, 40.0, 63.0, 100.0, 160.0, 250.0, 400.0, 630.0, 1000.0, 1600.0, 2500.0, 4000.0, 6300.0, 10000.0, 16000.0,
+        3.0, -3.0, 3.0, -3.0, 3.0, -3.0, 3.0, -3.0, 3.0, -3.0, 3.0, -3.0, 3.0, -3.0, 3.0
+    };
+    MultimodalEqualizerAxisInterpolation(dsp, 0, param, bands, bands + 15);
+    MultimodalEqualizerEnable(dsp, 1);
+    return 1;
+}
+
+static int setupCompander(JamesDSPLib* dsp, int param)
+{
+    double bands[14] = {
+        95.0, 200.0, 400.0, 800.0, 1600.0, 3400.0, 7500.0,
+        2.0, 1.0, 0.0, -1.0, 0.0, 1.0, 2.0
+    };
+    CompressorSetParam(dsp, 0.22f, 2, 0, 0);
+    CompressorSetGain(dsp, bands, bands + 7, 1);
+    CompressorEnable(dsp, 1);
+    return 1;
+}
+
+static int setupConvolver(JamesDSPLib* dsp, int param)
+{
+    // Exponentially decaying noise, interleaved stereo
+    float* ir = malloc((size_t)param * 2 * sizeof(float));
+    if(!ir)
+        return 0;
+    for(int i = 0; i < param; i++)
+    {
+        float env = expf(-6.9f * (float)i / (float)param);
+        ir[i * 2] = nextNoise() * env;
+        ir[i * 2 + 1] = nextNoise() * env;
+    }
+
+    int ret = Convolver1DLoadImpulseResponse(dsp, ir, 2, param, 1);
+    free(ir);
+    if(ret <= 0)
+        return 0;
+    Convolver1DEnable(dsp);
+    return 1;
+}
+
+static int setupDdc(JamesDSPLib* dsp, int param)
+{
+    // Eight pass-through biquads per supported rate; the cost does not depend on the coefficients
+    char vdc[1024] = "";
+    const char* rates[] = { "44100", "48000" };
+    for(int r = 0; r < 2; r++)
+    {
+        strcat(vdc, "SR_");
+        strcat(vdc, rates[r]);
+        strcat(vdc, ":");
+        for(int i = 0; i < 8; i++)
+            strcat(vdc, i == 7 ? "1.0,0.0,0.0,0.0,0.0\n" : "1.0,0.0,0.0,0.0,0.0,");
+    }
+
+    DDCStringParser(dsp, vdc);
+    return DDCEnable(dsp, 1) > 0;
+}
+
+static int setupLiveprog(JamesDSPLib* dsp, int param)
+{
+    char script[] =
+            "@init\n"
+            "g = 0.5;\n"
+            "@sample\n"
+            "spl0 = spl0 * g;\n"
+            "spl1 = spl1 * g;\n";
+
+    int ret = LiveProgStringParser(dsp, script);
+    // Same workaround as in the JNI wrapper
+    jdsp_unlock(dsp);
+    if(ret <= 0)
+        return 0;
+    LiveProgEnable(dsp);
+    return 1;
+}
+
+static int setupGraphicEq(JamesDSPLib* dsp, int param)
+{
+    char geq[] = "GraphicEQ: 25 3; 100 -2; 1000 1; 4000 -3; 16000 4";
+    ArbitraryResponseEqualizerStringParser(dsp, geq);
+    ArbitraryResponseEqualizerEnable(dsp, 1);
+    return 1;
+}
+
+static int setupCrossfeed(JamesDSPLib* dsp, int param)
+{
+    CrossfeedChangeMode(dsp, param);
+    CrossfeedEnable(dsp, 1);
+    return 1;
+}
+
+static int setupReverb(JamesDSPLib* dsp, int param)
+{
+    Reverb_SetParam(dsp, param);
+    ReverbEnable(dsp);
+    return 1;
+}
+
+static int setupBassBoost(JamesDSPLib* dsp, int param)
+{
+    BassBoostSetParam(dsp, 5.0f);
+    BassBoostEnable(dsp);
+    return 1;
+}
+
+static int setupStereoEnhancement(JamesDSPLib* dsp, int param)
+{
+    StereoEnhancementSetParam(dsp, 0.6f);
+    StereoEnhancementEnable(dsp);
+    return 1;
+}
+
+static int setupVacuumTube(JamesDSPLib* dsp, int param)
+{
+    VacuumTubeSetGain(dsp, 0.02f);
+    VacuumTubeEnable(dsp);
+    return 1;
+}
+
+static const stage_t STAGES[] = {
+    { "baseline", 0, setupBaseline },
+    { "multieq", 0, setupMultiEq },
+    { "multieq", 1, setupMultiEq },
+    { "compander", 0, setupCompander },
+    { "convolver", 4096, setupConvolver },
+    { "convolver", 32768, setupConvolver },
+    { "convolver", 131072, setupConvolver },
+    { "convolver", 262144, setupConvolver },
+    { "ddc", 0, setupDdc },
+    { "liveprog", 0, setupLiveprog },
+    { "graphiceq", 0, setupGraphicEq },
+    { "crossfeed", 0, setupCrossfeed },
+    { "reverb", 0, setupReverb },
+    { "bassboost", 0, setupBassBoost },
+    { "stereowide", 0, setupStereoEnhancement },
+    { "tube", 0, setupVacuumTube },
+};
+#define NUM_STAGES (sizeof(STAGES) / sizeof(STAGES[0]))
+
+static double nowNs(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (double)ts.tv_sec * 1e9 + (double)ts.tv_nsec;
+}
+
+/* Returns the average processing time in ns per frame */
+static double measure(JamesDSPLib* dsp, const float* input, float* output, int frames, int sampleRate, double seconds)
+{
+    long blocks = (long)ceil(seconds * sampleRate / frames);
+    if(blocks < 16)
+        blocks = 16;
+
+    // Warm up caches and let adaptive stages settle
+    for(long i = 0; i < blocks / 4; i++)
+        dsp->processFloatMultiplexd(dsp, input, output, frames);
+
+    double start = nowNs();
+    for(long i = 0; i < blocks; i++)
+        dsp->processFloatMultiplexd(dsp, input, output, frames);
+    double elapsed = nowNs() - start;
+
+    return elapsed / ((double)blocks * frames);
+}
+
+static void usage(const char* self)
+{
+    fprintf(stderr,
+            "Usage: %s [-t seconds] [-s stage] [-r rate] [-b frames] [-n]\n"
+            "  -t  audio seconds processed per measurement (default: 1.0)\n"
+            "  -s  only run stages whose name contains this string (baseline always runs)\n"
+            "  -r  only run this sample rate (default: 44100, 48000, 96000)\n"
+            "  -b  only run this buffer size in frames (default: 64 to 8192)\n"
+            "  -n  skip the convolution strategy benchmark (uses library defaults)\n",
+            self);
+}
+
+int main(int argc, char** argv)
+{
+    double seconds = 1.0;
+    const char* stageFilter = NULL;
+    int rateFilter = 0, bufferFilter = 0, skipStrategyBenchmark = 0;
+
+    int opt;
+    while((opt = getopt(argc, argv, "t:s:r:b:nh")) != -1)
+    {
+        switch(opt)
+        {
+            case 't': seconds = atof(optarg); break;
+            case 's': stageFilter = optarg; break;
+            case 'r': rateFilter = atoi(optarg); break;
+            case 'b': bufferFilter = atoi(optarg); break;
+            case 'n': skipStrategyBenchmark = 1; break;
+            default: usage(argv[0]); return opt == 'h' ? 0 : 1;
+        }
+    }
+
+    JamesDSPGlobalMemoryAllocation();
+
+    // Fill the convolution strategy tables like BenchmarkManager does on first launch
+    if(!skipStrategyBenchmark)
+    {
+        fprintf(stderr, "Running convolution strategy benchmark...\n");
+        JamesDSP_Start_benchmark();
+    }
+
+    int maxFrames = BUFFER_SIZES[NUM_BUFFER_SIZES - 1];
+    float* input = malloc((size_t)maxFrames * 2 * sizeof(float));
+    float* output = malloc((size_t)maxFrames * 2 * sizeof(float));
+    for(int i = 0; i < maxFrames * 2; i++)
+        input[i] = nextNoise() * 0.25f;
+
+    double baseline[NUM_BUFFER_SIZES];
+
+    printf("sample_rate,buffer_frames,stage,param,ns_per_frame,ns_per_frame_delta,load_percent\n");
+    for(size_t r = 0; r < NUM_SAMPLE_RATES; r++)
+    {
+        int fs = SAMPLE_RATES[r];
+        if(rateFilter && rateFilter != fs)
+            continue;
+
+        for(size_t s = 0; s < NUM_STAGES; s++)
+        {
+            const stage_t* stage = &STAGES[s];
+            if(s > 0 && stageFilter && !strstr(stage->name, stageFilter))
+                continue;
+
+            JamesDSPLib* dsp = (JamesDSPLib*)malloc(sizeof(JamesDSPLib));
+            memset(dsp, 0, sizeof(JamesDSPLib));
+            JamesDSPInit(dsp, 128, fs);
+            setupBaseline(dsp, 0);
+
+            if(!stage->setup(dsp, stage->param))
+            {
+                fprintf(stderr, "Skipping %s (%d) at %d Hz: setup failed\n", stage->name, stage->param, fs);
+                JamesDSPFree(dsp);
+                free(dsp);
+                continue;
+            }
+
+            for(size_t b = 0; b < NUM_BUFFER_SIZES; b++)
+            {
+                int frames = BUFFER_SIZES[b];
+                if(bufferFilter && bufferFilter != frames)
+                    continue;
+
+                double nsPerFrame = measure(dsp, input, output, frames, fs, seconds);
+                if(s == 0)
+                    baseline[b] = nsPerFrame;
+
+                printf("%d,%d,%s,%d,%.3f,%.3f,%.3f\n", fs, frames, stage->name, stage->param,
+                       nsPerFrame, nsPerFrame - baseline[b], nsPerFrame * fs / 1e9 * 100.0);
+                fflush(stdout);
+            }
+
+            JamesDSPFree(dsp);
+            free(dsp);
+        }
+    }
+
+    free(input);
+    free(output);
+    JamesDSPGlobalMemoryDeallocation();
+    return 0;
+}
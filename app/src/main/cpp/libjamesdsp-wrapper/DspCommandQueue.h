@@ -0,0 +1,76 @@
+#ifndef ROOTLESSJAMESDSP_DSPCOMMANDQUEUE_H
+#define ROOTLESSJAMESDSP_DSPCOMMANDQUEUE_H
+
+#include <atomic>
+#include <cstdint>
+#include <mutex>
+
+enum class DspCommandType : uint8_t
+{
+    Limiter,
+    PostGain,
+    Reverb,
+    Crossfeed,
+    BassBoost,
+    StereoEnhancement,
+    VacuumTube,
+    Liveprog,
+    /* Enable state only; parameters are delivered through a DspParameterSlot */
+    MultiEqualizer,
+    Compander,
+    GraphicEq,
+    /* Enable state only; VDC is always reconfigured synchronously */
+    Vdc
+};
+constexpr size_t DSP_COMMAND_TYPE_COUNT = (size_t)DspCommandType::Vdc + 1;
+
+typedef struct
+{
+    DspCommandType type;
+    bool enable;
+    float f[2];
+    int32_t i[3];
+} DspCommand;
+
+/*
+ * Fixed-size lock-free ring buffer carrying lightweight parameter changes to the audio thread.
+ * The audio thread is the only consumer and never blocks; producers are serialized
+ * by a mutex so that the ring itself only has to handle a single producer.
+ */
+template<size_t Capacity>
+class DspCommandQueue {
+    static_assert((Capacity & (Capacity - 1)) == 0, "Capacity must be a power of two");
+
+public:
+    bool push(const DspCommand& command)
+    {
+        std::lock_guard<std::mutex> lock(producerMutex);
+
+        auto head = writeIndex.load(std::memory_order_relaxed);
+        if(head - readIndex.load(std::memory_order_acquire) >= Capacity)
+            return false; // Full
+
+        ring[head & (Capacity - 1)] = command;
+        writeIndex.store(head + 1, std::memory_order_release);
+        return true;
+    }
+
+    bool pop(DspCommand& command)
+    {
+        auto tail = readIndex.load(std::memory_order_relaxed);
+        if(tail == writeIndex.load(std::memory_order_acquire))
+            return false; // Empty
+
+        command = ring[tail & (Capacity - 1)];
+        readIndex.store(tail + 1, std::memory_order_release);
+        return true;
+    }
+
+private:
+    DspCommand ring[Capacity]{};
+    std::atomic<size_t> writeIndex{0};
+    std::atomic<size_t> readIndex{0};
+    std::mutex producerMutex;
+};
+
+#endif //ROOTLESSJAMESDSP_DSPCOMMANDQUEUE_H
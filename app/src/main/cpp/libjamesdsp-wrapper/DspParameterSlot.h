@@ -0,0 +1,51 @@
+#ifndef ROOTLESSJAMESDSP_DSPPARAMETERSLOT_H
+#define ROOTLESSJAMESDSP_DSPPARAMETERSLOT_H
+
+#include <atomic>
+#include <mutex>
+#include <utility>
+
+/*
+ * Latest-value mailbox for parameter updates that don't fit into a DspCommand (EQ bands, GraphicEQ strings).
+ * A newer update replaces one that has not been applied yet. The audio thread only try-locks the slot at the
+ * next block boundary; if a producer is writing at that moment, the update is picked up one block later.
+ */
+template<typename Payload>
+class DspParameterSlot {
+public:
+    void publish(Payload&& update)
+    {
+        std::lock_guard<std::mutex> lock(mutex);
+        payload = std::move(update);
+        pending.store(true, std::memory_order_release);
+    }
+
+    /* Applies the pending update, if any, without blocking */
+    template<typename F>
+    void consume(F apply)
+    {
+        if(!pending.load(std::memory_order_acquire))
+            return;
+
+        std::unique_lock<std::mutex> lock(mutex, std::try_to_lock);
+        if(!lock.owns_lock())
+            return;
+
+        apply(payload);
+        pending.store(false, std::memory_order_release);
+    }
+
+    /* Drops an update that has been superseded by a direct reconfiguration */
+    void discard()
+    {
+        std::lock_guard<std::mutex> lock(mutex);
+        pending.store(false, std::memory_order_release);
+    }
+
+private:
+    std::mutex mutex;
+    std::atomic<bool> pending{false};
+    Payload payload{};
+};
+
+#endif //ROOTLESSJAMESDSP_DSPPARAMETERSLOT_H
@@ -3,7 +3,14 @@
 #define TAG "JamesDspWrapper_JNI"
 #include <Log.h>
 
+#include <algorithm>
+#include <cerrno>
 #include <string>
+#include <string_view>
+#include <thread>
+#include <chrono>
+#include <functional>
+#include <type_traits>
 #include <jni.h>
 
 #include "JamesDspWrapper.h"
@@ -47,11 +54,390 @@ inline JamesDspWrapper* castWrapper(jlong raw){
     auto* dsp = cast(wrapper->dsp); \
     RETURN_IF_NULL(dsp, retval)
 
+#define SILENCE_HOLD_SECONDS 5
+
 #define DECLARE_WRAPPER_V DECLARE_WRAPPER()
 #define DECLARE_DSP_V DECLARE_DSP()
 #define DECLARE_WRAPPER_B DECLARE_WRAPPER(false)
 #define DECLARE_DSP_B DECLARE_DSP(false)
 
+/*
+ * Heavy reconfigurations (filter design, IR partitioning, EEL compilation) are run while the audio thread
+ * is held off. Instead of blocking on the library lock, the audio thread fades to the unprocessed signal,
+ * passes it through until the reconfiguration has finished, and then fades back in to the new configuration.
+ */
+class ReconfigurationGuard {
+public:
+    explicit ReconfigurationGuard(JamesDspWrapper* wrapper) : wrapper(wrapper), lock(wrapper->reconfigurationMutex)
+    {
+        // Let the audio thread ramp down to the dry signal first, unless it is currently not running.
+        // Clear any acknowledgement left over from a previous guard before requesting a new fade.
+        wrapper->fadedOut.store(false);
+        wrapper->fadeOutRequested.store(true);
+        auto start = std::chrono::steady_clock::now();
+        while(!wrapper->fadedOut.load() && isAudioThreadActive() &&
+              std::chrono::steady_clock::now() - start < FADE_TIMEOUT)
+            std::this_thread::sleep_for(std::chrono::milliseconds(1));
+
+        wrapper->reconfiguring.fetch_add(1);
+        // Wait until an ongoing block has been completed
+        while(wrapper->processing.load())
+            std::this_thread::yield();
+    }
+
+    ~ReconfigurationGuard()
+    {
+        // Reset the fade state before the audio thread may resume processing
+        wrapper->fadeOutRequested.store(false);
+        wrapper->fadedOut.store(false);
+        wrapper->reconfiguring.fetch_sub(1);
+    }
+
+private:
+    static constexpr auto FADE_TIMEOUT = std::chrono::milliseconds(250);
+    static constexpr auto IDLE_THRESHOLD = std::chrono::milliseconds(100);
+
+    bool isAudioThreadActive() const
+    {
+        auto lastBlock = std::chrono::steady_clock::time_point(std::chrono::steady_clock::duration(wrapper->lastBlockTime.load()));
+        return std::chrono::steady_clock::now() - lastBlock < IDLE_THRESHOLD;
+    }
+
+    JamesDspWrapper* wrapper;
+    std::lock_guard<std::mutex> lock;
+};
+
+#define DECLARE_RECONFIGURATION ReconfigurationGuard _reconfigurationGuard(wrapper);
+
+inline void applyCommand(JamesDSPLib* dsp, const DspCommand& command)
+{
+    switch(command.type)
+    {
+        case DspCommandType::Limiter:
+            JLimiterSetCoefficients(dsp, command.f[0], command.f[1]);
+            break;
+        case DspCommandType::PostGain:
+            JamesDSPSetPostGain(dsp, command.f[0]);
+            break;
+        case DspCommandType::Reverb:
+            if(command.enable)
+            {
+                Reverb_SetParam(dsp, command.i[0]);
+                ReverbEnable(dsp);
+            }
+            else
+            {
+                ReverbDisable(dsp);
+            }
+            break;
+        case DspCommandType::Crossfeed:
+            if(command.i[0] == 99)
+            {
+                memset(&dsp->advXF.bs2b, 0, sizeof(dsp->advXF.bs2b));
+                BS2BInit(&dsp->advXF.bs2b[1], (unsigned int)dsp->fs, ((unsigned int)command.i[1] | ((unsigned int)command.i[2] << 16)));
+                dsp->advXF.mode = 1;
+            }
+            else
+            {
+                CrossfeedChangeMode(dsp, command.i[0]);
+            }
+
+            if(command.enable)
+                CrossfeedEnable(dsp, 1);
+            else
+                CrossfeedDisable(dsp);
+            break;
+        case DspCommandType::BassBoost:
+            if(command.enable)
+            {
+                BassBoostSetParam(dsp, command.f[0]);
+                BassBoostEnable(dsp);
+            }
+            else
+            {
+                BassBoostDisable(dsp);
+            }
+            break;
+        case DspCommandType::StereoEnhancement:
+            StereoEnhancementDisable(dsp);
+            StereoEnhancementSetParam(dsp, command.f[0] / 100.0f);
+            if(command.enable)
+            {
+                StereoEnhancementEnable(dsp);
+            }
+            break;
+        case DspCommandType::VacuumTube:
+            if(command.enable)
+            {
+                VacuumTubeSetGain(dsp, command.f[0] / 100.0f);
+                VacuumTubeEnable(dsp);
+            }
+            else
+            {
+                VacuumTubeDisable(dsp);
+            }
+            break;
+        case DspCommandType::Liveprog:
+            if(command.enable)
+                LiveProgEnable(dsp);
+            else
+                LiveProgDisable(dsp);
+            break;
+        case DspCommandType::MultiEqualizer:
+            if(command.enable)
+                MultimodalEqualizerEnable(dsp, 1);
+            else
+                MultimodalEqualizerDisable(dsp);
+            break;
+        case DspCommandType::Compander:
+            if(command.enable)
+                CompressorEnable(dsp, 1);
+            else
+                CompressorDisable(dsp);
+            break;
+        case DspCommandType::GraphicEq:
+            if(command.enable)
+                ArbitraryResponseEqualizerEnable(dsp, 1);
+            else
+                ArbitraryResponseEqualizerDisable(dsp);
+            break;
+        case DspCommandType::Vdc:
+            // Applied synchronously by setVdc
+            break;
+    }
+}
+
+inline void applyMultiEqualizerParams(JamesDSPLib* dsp, MultiEqualizerParams& params)
+{
+    MultimodalEqualizerAxisInterpolation(dsp, params.interpolationMode, params.filterType, params.bands, params.bands + 15);
+    MultimodalEqualizerEnable(dsp, 1);
+}
+
+inline void applyCompanderParams(JamesDSPLib* dsp, CompanderParams& params)
+{
+    CompressorSetParam(dsp, params.timeConstant, params.granularity, params.tfResolution, 0);
+    CompressorSetGain(dsp, params.bands, params.bands + 7, 1);
+    CompressorEnable(dsp, 1);
+}
+
+inline void applyGraphicEqParams(JamesDSPLib* dsp, std::string& params)
+{
+    ArbitraryResponseEqualizerStringParser(dsp, (char*)params.c_str());
+    ArbitraryResponseEqualizerEnable(dsp, 1);
+}
+
+inline void drainCommands(JamesDspWrapper* wrapper, JamesDSPLib* dsp)
+{
+    DspCommand command{};
+    while(wrapper->commandQueue.pop(command))
+        applyCommand(dsp, command);
+
+    wrapper->multiEqualizerParams.consume([dsp](MultiEqualizerParams& params) { applyMultiEqualizerParams(dsp, params); });
+    wrapper->companderParams.consume([dsp](CompanderParams& params) { applyCompanderParams(dsp, params); });
+    wrapper->graphicEqParams.consume([dsp](std::string& params) { applyGraphicEqParams(dsp, params); });
+}
+
+/*
+ * Applies a command directly, after all queued commands, and records its enable state.
+ * Only call while the audio thread is held off by a ReconfigurationGuard.
+ */
+inline void applyCommandNow(JamesDspWrapper* wrapper, JamesDSPLib* dsp, const DspCommand& command)
+{
+    drainCommands(wrapper, dsp);
+    wrapper->stageEnabled[(size_t)command.type] = command.enable;
+    applyCommand(dsp, command);
+}
+
+inline void submitCommand(JamesDspWrapper* wrapper, JamesDSPLib* dsp, const DspCommand& command)
+{
+    if(wrapper->stageEnabled[(size_t)command.type] != command.enable)
+    {
+        // Switching a stage on or off (and cutting its tail) would click; crossfade through the dry signal instead
+        DECLARE_RECONFIGURATION
+        applyCommandNow(wrapper, dsp, command);
+        return;
+    }
+
+    if(wrapper->commandQueue.push(command))
+        return;
+
+    // Queue is full; hold off the audio thread and apply everything in order from here
+    LOGW("JamesDspWrapper::submitCommand: Command queue full, applying directly");
+    DECLARE_RECONFIGURATION
+    applyCommandNow(wrapper, dsp, command);
+}
+
+template<typename T>
+inline void bypassBlock(const T* input, T* output, size_t samples)
+{
+    if(input != output)
+        memmove(output, input, samples * sizeof(T));
+}
+
+/* Linear crossfade from 'from' to 'to' across one block of interleaved stereo samples, written to 'to' */
+template<typename T>
+inline void crossfadeBlock(const T* from, T* to, size_t frames)
+{
+    for(size_t i = 0; i < frames; i++)
+    {
+        double gain = (double)i / (double)frames;
+        for(size_t c = 0; c < 2; c++)
+        {
+            auto idx = i * 2 + c;
+            to[idx] = (T)(from[idx] + (to[idx] - (double)from[idx]) * gain);
+        }
+    }
+}
+
+/* Per-format level below which a sample is treated as silence (about -90 dBFS) */
+inline bool isSilentSample(int16_t s) { return s >= -1 && s <= 1; }
+inline bool isSilentSample(int32_t s) { return s >= -(1 << 16) && s <= (1 << 16); }
+inline bool isSilentSample(float s) { return s >= -3e-5f && s <= 3e-5f; }
+
+template<typename T>
+inline bool isSilentBlock(const T* input, size_t samples)
+{
+    for(size_t i = 0; i < samples; i++)
+    {
+        if(!isSilentSample(input[i]))
+            return false;
+    }
+    return true;
+}
+
+/*
+ * Tracks silent input. Returns true once the input has been silent for longer than the minimum hold time
+ * and the convolver impulse response, so that reverb and convolution tails have fully rung out.
+ * Liveprog scripts may generate sound on their own; the chain is never skipped while one is active.
+ */
+template<typename T>
+inline bool shouldSkipSilentBlock(JamesDspWrapper* wrapper, JamesDSPLib* dsp, const T* input, size_t frames)
+{
+    if(!wrapper->silenceBypass.load() || wrapper->liveprogActive.load() || !isSilentBlock(input, frames * 2))
+    {
+        wrapper->silentFrames = 0;
+        return false;
+    }
+
+    auto holdFrames = std::max((int64_t)(dsp->fs * SILENCE_HOLD_SECONDS), (int64_t)wrapper->convolverFrames.load());
+    if(wrapper->silentFrames < holdFrames)
+    {
+        wrapper->silentFrames += frames;
+        return false;
+    }
+    return true;
+}
+
+/*
+ * Runs one block on the audio thread. Pending lightweight commands are applied first; while a heavy
+ * reconfiguration is in progress, the block is passed through and the transitions are crossfaded.
+ */
+template<typename T, typename F>
+inline void processBlock(JamesDspWrapper* wrapper, JamesDSPLib* dsp, const T* input, T* output, size_t frames, F process)
+{
+    // Packed 24-bit samples cannot be mixed byte-wise; these switch without crossfading
+    constexpr bool canFade = !std::is_same<T, jboolean>::value;
+    auto samples = frames * 2;
+
+    wrapper->lastBlockTime.store(std::chrono::steady_clock::now().time_since_epoch().count());
+    wrapper->processing.store(true);
+
+    bool fadeOutRequested = wrapper->fadeOutRequested.load();
+    if(wrapper->reconfiguring.load() > 0 || (fadeOutRequested && !wrapper->isWet))
+    {
+        wrapper->processing.store(false);
+        bypassBlock(input, output, samples);
+        wrapper->isWet = false;
+        wrapper->fadedOut.store(fadeOutRequested);
+        return;
+    }
+
+    if constexpr (canFade)
+    {
+        if(shouldSkipSilentBlock(wrapper, dsp, input, frames))
+        {
+            // Keep parameter changes flowing; a pending fade-out completes immediately since nothing is audible
+            drainCommands(wrapper, dsp);
+            bypassBlock(input, output, samples);
+            if(fadeOutRequested)
+                wrapper->isWet = false;
+            wrapper->processing.store(false);
+            wrapper->fadedOut.store(fadeOutRequested);
+            return;
+        }
+    }
+
+    drainCommands(wrapper, dsp);
+
+    bool fade = canFade && (fadeOutRequested || !wrapper->isWet);
+    if(fade)
+    {
+        // Keep a dry copy; input and output may be the same buffer. Only grows, so this rarely allocates.
+        if(wrapper->dryScratch.size() < samples * sizeof(T))
+            wrapper->dryScratch.resize(samples * sizeof(T));
+        memcpy(wrapper->dryScratch.data(), input, samples * sizeof(T));
+    }
+
+    process();
+
+    if(fade)
+    {
+        auto* dry = reinterpret_cast<T*>(wrapper->dryScratch.data());
+        if(fadeOutRequested)
+        {
+            // Wet -> dry
+            crossfadeBlock(output, dry, frames);
+            memcpy(output, dry, samples * sizeof(T));
+        }
+        else
+        {
+            // Dry -> wet
+            crossfadeBlock(dry, output, frames);
+        }
+    }
+
+    wrapper->isWet = !fadeOutRequested;
+    wrapper->processing.store(false);
+    wrapper->fadedOut.store(fadeOutRequested);
+}
+
+/* Worker side of the processing pipeline; runs the chain in-place on one block */
+static void processPipelinedBlock(void* context, uint8_t* data, int frames, size_t sampleSize)
+{
+    auto* wrapper = static_cast<JamesDspWrapper*>(context);
+    auto* dsp = cast(wrapper->dsp);
+    RETURN_IF_NULL(dsp, )
+
+    if(sampleSize == sizeof(int16_t))
+    {
+        auto* buffer = reinterpret_cast<int16_t*>(data);
+        processBlock(wrapper, dsp, buffer, buffer, frames, [&] {
+            dsp->processInt16Multiplexd(dsp, buffer, buffer, frames);
+        });
+    }
+    else
+    {
+        auto* buffer = reinterpret_cast<float*>(data);
+        processBlock(wrapper, dsp, buffer, buffer, frames, [&] {
+            dsp->processFloatMultiplexd(dsp, buffer, buffer, frames);
+        });
+    }
+}
+
+/*
+ * Hands the block to the pipeline if enabled. Returns the number of frames placed in 'output',
+ * or -1 if the block has to be processed on the calling thread.
+ */
+template<typename T>
+inline int submitPipelined(JamesDspWrapper* wrapper, const T* input, T* output, int frames, int capacityFrames)
+{
+    if(!wrapper->pipelined.load())
+        return -1;
+
+    bypassBlock(input, output, (size_t)frames * 2);
+    return wrapper->pipeline->exchange(reinterpret_cast<uint8_t*>(output), frames, capacityFrames, sizeof(T));
+}
+
 inline int32_t arySearch(int32_t *array, int32_t N, int32_t x)
 {
     for (int32_t i = 0; i < N; i++)
@@ -81,12 +467,58 @@ inline int32_t arySearch(int32_t *array, int32_t N, int32_t x)
         return (void*)&st->m_literal_strings[idx];
 }*/
 
+/*
+ * Delivers buffered EEL stdout to Java in batches, so that the audio thread never has to call into the JVM.
+ * Sleeps until output is pending; there are no periodic wakeups while scripts are silent or not loaded.
+ */
+static void liveprogOutputWorker(JamesDspWrapper* wrapper)
+{
+    JNIEnv* env = nullptr;
+    if(wrapper->vm->AttachCurrentThread(&env, nullptr) != JNI_OK)
+    {
+        LOGE("JamesDspWrapper::liveprogOutputWorker: Failed to attach thread to JVM");
+        return;
+    }
+
+    std::string batch;
+    bool stop = false;
+    while(!stop)
+    {
+        while(sem_wait(&wrapper->liveprogOutputSignal) != 0 && errno == EINTR);
+        stop = wrapper->liveprogOutputStop.load();
+
+        // Re-arm before draining; output written from now on posts the semaphore again
+        wrapper->liveprogOutputPending.store(false);
+
+        batch.clear();
+        wrapper->liveprogOutput.drain(batch);
+        auto dropped = wrapper->liveprogOutput.takeDropped();
+        if(dropped > 0)
+        {
+            batch.append("\n[" + std::to_string(dropped) + " message(s) dropped]\n");
+        }
+        if(batch.empty())
+            continue;
+
+        jstring message = env->NewStringUTF(batch.c_str());
+        env->CallVoidMethod(wrapper->callbackInterface, wrapper->callbackOnLiveprogOutput, message);
+        if(env->ExceptionCheck())
+        {
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+        }
+        env->DeleteLocalRef(message);
+    }
+
+    wrapper->vm->DetachCurrentThread();
+}
+
 extern "C" JNIEXPORT jlong JNICALL
 Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_alloc(JNIEnv *env, jobject obj, jobject callback)
 {
     auto* self = new JamesDspWrapper();
     self->callbackInterface = env->NewGlobalRef(callback);
-    self->env = env;
+    env->GetJavaVM(&self->vm);
 
     jclass callbackClass = env->GetObjectClass(callback);
     if (callbackClass == nullptr)
@@ -139,6 +571,9 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_alloc(JNIEnv *e
     }
 
     self->dsp = _dsp;
+    self->pipeline = new ProcessingPipeline(processPipelinedBlock, self);
+    sem_init(&self->liveprogOutputSignal, 0, 0);
+    self->liveprogOutputThread = std::thread(liveprogOutputWorker, self);
 
     LOGD("JamesDspWrapper::ctor: memory allocated at %lx", (long)self);
     return (long)self;
@@ -153,6 +588,17 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_free(JNIEnv *en
 
     setStdOutHandler(nullptr, nullptr);
 
+    wrapper->pipelined.store(false);
+    delete wrapper->pipeline;
+    wrapper->pipeline = nullptr;
+
+    // Flush remaining output and stop the delivery thread
+    wrapper->liveprogOutputStop.store(true);
+    sem_post(&wrapper->liveprogOutputSignal);
+    if(wrapper->liveprogOutputThread.joinable())
+        wrapper->liveprogOutputThread.join();
+    sem_destroy(&wrapper->liveprogOutputSignal);
+
     JamesDSPFree(dsp);
     free(dsp);
     wrapper->dsp = nullptr;
@@ -208,6 +654,7 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setSamplingRate
                                                                                  jboolean force_refresh)
 {
     DECLARE_DSP_V
+    DECLARE_RECONFIGURATION
     JamesDSPSetSampleRate(dsp, sample_rate, force_refresh);
 }
 
@@ -235,7 +682,9 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_processInt16(JN
 
     auto input = env->GetShortArrayElements(inputObj, nullptr);
     auto output = env->GetShortArrayElements(outputObj, nullptr);
-    dsp->processInt16Multiplexd(dsp, input + offset, output, inputLength / 2);
+    processBlock(wrapper, dsp, input + offset, output, inputLength / 2, [&] {
+        dsp->processInt16Multiplexd(dsp, input + offset, output, inputLength / 2);
+    });
     env->ReleaseShortArrayElements(inputObj, input, JNI_ABORT);
     env->ReleaseShortArrayElements(outputObj, output, 0);
 }
@@ -256,7 +705,9 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_processInt32(JN
 
     auto input = env->GetIntArrayElements(inputObj, nullptr);
     auto output = env->GetIntArrayElements(outputObj, nullptr);
-    dsp->processInt32Multiplexd(dsp, input + offset, output, inputLength / 2);
+    processBlock(wrapper, dsp, input + offset, output, inputLength / 2, [&] {
+        dsp->processInt32Multiplexd(dsp, input + offset, output, inputLength / 2);
+    });
     env->ReleaseIntArrayElements(inputObj, input, JNI_ABORT);
     env->ReleaseIntArrayElements(outputObj, output, 0);
 }
@@ -275,7 +726,9 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_processInt24Pac
 
     auto input = env->GetBooleanArrayElements(inputObj, nullptr);
     auto output = env->GetBooleanArrayElements(outputObj, nullptr);
-    dsp->processInt24PackedMultiplexd(dsp, input, output, inputLength / 2);
+    processBlock(wrapper, dsp, input, output, inputLength / 2, [&] {
+        dsp->processInt24PackedMultiplexd(dsp, input, output, inputLength / 2);
+    });
     env->ReleaseBooleanArrayElements(inputObj, input, JNI_ABORT);
     env->ReleaseBooleanArrayElements(outputObj, output, 0);
     return outputObj;
@@ -293,7 +746,9 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_processInt8U24(
 
     auto input = env->GetIntArrayElements(inputObj, nullptr);
     auto output = env->GetIntArrayElements(outputObj, nullptr);
-    dsp->processInt8_24Multiplexd(dsp, input, output, inputLength / 2);
+    processBlock(wrapper, dsp, input, output, inputLength / 2, [&] {
+        dsp->processInt8_24Multiplexd(dsp, input, output, inputLength / 2);
+    });
     env->ReleaseIntArrayElements(inputObj, input, JNI_ABORT);
     env->ReleaseIntArrayElements(outputObj, output, 0);
     return outputObj;
@@ -316,17 +771,118 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_processFloat(JN
     auto input = env->GetFloatArrayElements(inputObj, nullptr);
     auto output = env->GetFloatArrayElements(outputObj, nullptr);
 
-    dsp->processFloatMultiplexd(dsp, input + offset, output, inputLength / 2);
+    processBlock(wrapper, dsp, input + offset, output, inputLength / 2, [&] {
+        dsp->processFloatMultiplexd(dsp, input + offset, output, inputLength / 2);
+    });
 
     env->ReleaseFloatArrayElements(inputObj, input, JNI_ABORT);
     env->ReleaseFloatArrayElements(outputObj, output, 0);
 }
 
+/* Direct buffer variants; input and output may point to the same buffer for in-place processing */
+inline void* getDirectBuffer(JNIEnv *env, jobject buffer, jlong requiredSize, const char* caller)
+{
+    auto* address = env->GetDirectBufferAddress(buffer);
+    if(address == nullptr)
+    {
+        LOGE("JamesDspWrapper::%s: Buffer is not a direct buffer", caller);
+        return nullptr;
+    }
+    if(env->GetDirectBufferCapacity(buffer) < requiredSize)
+    {
+        LOGE("JamesDspWrapper::%s: Buffer capacity too small (%lld bytes required)", caller, (long long)requiredSize);
+        return nullptr;
+    }
+    return address;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_processInt16Direct(JNIEnv *env, jobject obj, jlong self, jobject inputObj, jobject outputObj, jint frames)
+{
+    DECLARE_DSP(0)
+
+    auto requiredSize = (jlong)frames * 2 * sizeof(int16_t);
+    auto* input = static_cast<int16_t*>(getDirectBuffer(env, inputObj, requiredSize, "processInt16Direct"));
+    auto* output = static_cast<int16_t*>(getDirectBuffer(env, outputObj, requiredSize, "processInt16Direct"));
+    RETURN_IF_NULL(input, 0)
+    RETURN_IF_NULL(output, 0)
+
+    auto capacityFrames = (int)(env->GetDirectBufferCapacity(outputObj) / (jlong)(2 * sizeof(int16_t)));
+    auto pipelinedFrames = submitPipelined(wrapper, input, output, frames, capacityFrames);
+    if(pipelinedFrames >= 0)
+        return pipelinedFrames;
+
+    processBlock(wrapper, dsp, input, output, frames, [&] {
+        dsp->processInt16Multiplexd(dsp, input, output, frames);
+    });
+    return frames;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_processFloatDirect(JNIEnv *env, jobject obj, jlong self, jobject inputObj, jobject outputObj, jint frames)
+{
+    DECLARE_DSP(0)
+
+    auto requiredSize = (jlong)frames * 2 * sizeof(float);
+    auto* input = static_cast<float*>(getDirectBuffer(env, inputObj, requiredSize, "processFloatDirect"));
+    auto* output = static_cast<float*>(getDirectBuffer(env, outputObj, requiredSize, "processFloatDirect"));
+    RETURN_IF_NULL(input, 0)
+    RETURN_IF_NULL(output, 0)
+
+    auto capacityFrames = (int)(env->GetDirectBufferCapacity(outputObj) / (jlong)(2 * sizeof(float)));
+    auto pipelinedFrames = submitPipelined(wrapper, input, output, frames, capacityFrames);
+    if(pipelinedFrames >= 0)
+        return pipelinedFrames;
+
+    processBlock(wrapper, dsp, input, output, frames, [&] {
+        dsp->processFloatMultiplexd(dsp, input, output, frames);
+    });
+    return frames;
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_getPipelineProcessingTime(JNIEnv *env, jobject obj, jlong self)
+{
+    DECLARE_WRAPPER(-1)
+    RETURN_IF_NULL(wrapper->pipeline, -1)
+    if(!wrapper->pipelined.load())
+        return -1;
+    return wrapper->pipeline->lastProcessingTimeNs();
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setSilenceBypass(JNIEnv *env, jobject obj, jlong self, jboolean enable)
+{
+    DECLARE_WRAPPER_V
+    wrapper->silenceBypass.store(enable);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setPipelinedProcessing(JNIEnv *env, jobject obj, jlong self, jboolean enable)
+{
+    DECLARE_WRAPPER_V
+    RETURN_IF_NULL(wrapper->pipeline, )
+
+    if(enable)
+    {
+        wrapper->pipeline->start();
+        wrapper->pipelined.store(true);
+    }
+    else
+    {
+        wrapper->pipelined.store(false);
+        wrapper->pipeline->stop();
+    }
+    LOGD("JamesDspWrapper::setPipelinedProcessing: pipelined processing %s", (enable ? "enabled" : "disabled"));
+}
+
 extern "C" JNIEXPORT jboolean JNICALL
 Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setLimiter(JNIEnv *env, jobject obj, jlong self, jfloat threshold, jfloat release)
 {
     DECLARE_DSP_B
-    JLimiterSetCoefficients(dsp, threshold, release);
+    submitCommand(wrapper, dsp, { DspCommandType::Limiter, true, { threshold, release } });
     return true;
 }
 
@@ -334,7 +890,7 @@ extern "C" JNIEXPORT jboolean JNICALL
 Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setPostGain(JNIEnv *env, jobject obj, jlong self, jfloat gain)
 {
     DECLARE_DSP_B
-    JamesDSPSetPostGain(dsp, gain);
+    submitCommand(wrapper, dsp, { DspCommandType::PostGain, true, { gain } });
     return true;
 }
 
@@ -345,31 +901,35 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setMultiEqualiz
 {
     DECLARE_DSP_B
 
-    if(env->GetArrayLength(bands) != 30)
+    if(bands == nullptr)
+    {
+        LOGW("JamesDspWrapper::setMultiEqualizer: EQ band pointer is NULL. Disabling EQ");
+        enable = false;
+    }
+    else if(env->GetArrayLength(bands) != 30)
     {
         LOGE("JamesDspWrapper::setMultiEqualizer: Invalid EQ data. 30 semicolon-separated fields expected, "
                       "found %d fields instead.", env->GetArrayLength(bands));
         return false;
     }
 
-    if(bands == nullptr)
+    MultiEqualizerParams params{ filterType, interpolationMode };
+    if(enable)
+        env->GetDoubleArrayRegion(bands, 0, 30, params.bands);
+
+    if(wrapper->stageEnabled[(size_t)DspCommandType::MultiEqualizer] == (bool)enable)
     {
-        LOGW("JamesDspWrapper::setMultiEqualizer: EQ band pointer is NULL. Disabling EQ");
-        MultimodalEqualizerDisable(dsp);
+        // Band changes only redesign the filter; hand them to the audio thread without fading through the dry signal
+        if(enable)
+            wrapper->multiEqualizerParams.publish(std::move(params));
         return true;
     }
 
+    DECLARE_RECONFIGURATION
+    wrapper->multiEqualizerParams.discard();
     if(enable)
-    {
-        auto* nativeBands = (env->GetDoubleArrayElements(bands, nullptr));
-        MultimodalEqualizerAxisInterpolation(dsp, interpolationMode, filterType, nativeBands, nativeBands + 15);
-        env->ReleaseDoubleArrayElements(bands, nativeBands, JNI_ABORT);
-        MultimodalEqualizerEnable(dsp, 1);
-    }
-    else
-    {
-        MultimodalEqualizerDisable(dsp);
-    }
+        MultimodalEqualizerAxisInterpolation(dsp, interpolationMode, filterType, params.bands, params.bands + 15);
+    applyCommandNow(wrapper, dsp, { DspCommandType::MultiEqualizer, (bool)enable });
     return true;
 }
 
@@ -378,11 +938,25 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setVdc(JNIEnv *
                                                                        jboolean enable, jstring vdcContents)
 {
     DECLARE_DSP_B
-    if(enable)
+
+    std::string contents;
+    if(enable && vdcContents != nullptr)
     {
         const char *nativeString = env->GetStringUTFChars(vdcContents, nullptr);
-        DDCStringParser(dsp, (char*)nativeString);
+        contents = nativeString;
         env->ReleaseStringUTFChars(vdcContents, nativeString);
+    }
+
+    // Re-parsing the DDC reallocates its filter state, so only reconfigure when the contents or the enable state change
+    size_t hash = std::hash<std::string>{}(contents);
+    bool& vdcEnabled = wrapper->stageEnabled[(size_t)DspCommandType::Vdc];
+    if(vdcEnabled == (bool)enable && (!enable || wrapper->vdcHash == hash))
+        return true;
+
+    DECLARE_RECONFIGURATION
+    if(enable)
+    {
+        DDCStringParser(dsp, (char*)contents.c_str());
 
         int ret = DDCEnable(dsp, 1);
         if (ret <= 0)
@@ -392,13 +966,16 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setVdc(JNIEnv *
             env->CallVoidMethod(wrapper->callbackInterface, wrapper->callbackOnVdcParseError);
 
             DDCDisable(dsp);
+            vdcEnabled = false;
             return false;
         }
+        wrapper->vdcHash = hash;
     }
     else
     {
         DDCDisable(dsp);
     }
+    vdcEnabled = enable;
     return true;
 }
 
@@ -408,32 +985,37 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setCompander(JN
 {
     DECLARE_DSP_B
 
-    if(env->GetArrayLength(bands) != 14)
+    if(bands == nullptr)
+    {
+        LOGW("JamesDspWrapper::setCompander: Compander band pointer is NULL. Disabling compander");
+        enable = false;
+    }
+    else if(env->GetArrayLength(bands) != 14)
     {
         LOGE("JamesDspWrapper::setCompander: Invalid compander data. 14 semicolon-separated fields expected, "
              "found %d fields instead.", env->GetArrayLength(bands));
         return false;
     }
 
-    if(bands == nullptr)
+    CompanderParams params{ timeConstant, granularity, tfresolution };
+    if(enable)
+        env->GetDoubleArrayRegion(bands, 0, 14, params.bands);
+
+    if(wrapper->stageEnabled[(size_t)DspCommandType::Compander] == (bool)enable)
     {
-        LOGW("JamesDspWrapper::setCompander: Compander band pointer is NULL. Disabling compander");
-        MultimodalEqualizerDisable(dsp);
+        if(enable)
+            wrapper->companderParams.publish(std::move(params));
         return true;
     }
 
+    DECLARE_RECONFIGURATION
+    wrapper->companderParams.discard();
     if(enable)
     {
         CompressorSetParam(dsp, timeConstant, granularity, tfresolution, 0);
-        auto* nativeBands = (env->GetDoubleArrayElements(bands, nullptr));
-        CompressorSetGain(dsp, nativeBands, nativeBands + 7, 1);
-        env->ReleaseDoubleArrayElements(bands, nativeBands, JNI_ABORT);
-        CompressorEnable(dsp, 1);
-    }
-    else
-    {
-        CompressorDisable(dsp);
+        CompressorSetGain(dsp, params.bands, params.bands + 7, 1);
     }
+    applyCommandNow(wrapper, dsp, { DspCommandType::Compander, (bool)enable });
     return true;
 }
 
@@ -442,15 +1024,7 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setReverb(JNIEn
                                                                           jboolean enable, jint preset)
 {
     DECLARE_DSP_B
-    if(enable)
-    {
-        Reverb_SetParam(dsp, preset);
-        ReverbEnable(dsp);
-    }
-    else
-    {
-        ReverbDisable(dsp);
-    }
+    submitCommand(wrapper, dsp, { DspCommandType::Reverb, (bool)enable, {}, { preset } });
     return true;
 }
 
@@ -460,6 +1034,7 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setConvolver(JN
                                                                              jint irChannels, jint irFrames)
 {
     DECLARE_DSP_B
+    DECLARE_RECONFIGURATION
 
     int success = 1;
     if(env->GetArrayLength(impulseResponse) <= 0)
@@ -488,6 +1063,7 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setConvolver(JN
         Convolver1DEnable(dsp);
     else
         Convolver1DDisable(dsp);
+    wrapper->convolverFrames.store(enable ? irFrames : 0);
 
     if(success <= 0)
     {
@@ -509,17 +1085,26 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setGraphicEq(JN
         enable = false;
     }
 
+    std::string params;
     if(enable)
     {
         const char *nativeString = env->GetStringUTFChars(graphicEq, nullptr);
-        ArbitraryResponseEqualizerStringParser(dsp, (char*)nativeString);
+        params = nativeString;
         env->ReleaseStringUTFChars(graphicEq, nativeString);
+    }
 
-        ArbitraryResponseEqualizerEnable(dsp, 1);
+    if(wrapper->stageEnabled[(size_t)DspCommandType::GraphicEq] == (bool)enable)
+    {
+        if(enable)
+            wrapper->graphicEqParams.publish(std::move(params));
+        return true;
     }
-    else
-        ArbitraryResponseEqualizerDisable(dsp);
 
+    DECLARE_RECONFIGURATION
+    wrapper->graphicEqParams.discard();
+    if(enable)
+        ArbitraryResponseEqualizerStringParser(dsp, (char*)params.c_str());
+    applyCommandNow(wrapper, dsp, { DspCommandType::GraphicEq, (bool)enable });
     return true;
 }
 
@@ -528,22 +1113,7 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setCrossfeed(JN
                                                                              jboolean enable, jint mode, jint customFcut, jint customFeed)
 {
     DECLARE_DSP_B
-    if(mode == 99)
-    {
-        memset(&dsp->advXF.bs2b, 0, sizeof(dsp->advXF.bs2b));
-        BS2BInit(&dsp->advXF.bs2b[1], (unsigned int)dsp->fs, ((unsigned int)customFcut | ((unsigned int)customFeed << 16)));
-        dsp->advXF.mode = 1;
-    }
-    else
-    {
-       CrossfeedChangeMode(dsp, mode);
-    }
-
-    if(enable)
-        CrossfeedEnable(dsp, 1);
-    else
-        CrossfeedDisable(dsp);
-
+    submitCommand(wrapper, dsp, { DspCommandType::Crossfeed, (bool)enable, {}, { mode, customFcut, customFeed } });
     return true;
 }
 
@@ -552,15 +1122,7 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setBassBoost(JN
                                                                              jboolean enable, jfloat maxGain)
 {
     DECLARE_DSP_B
-    if(enable)
-    {
-        BassBoostSetParam(dsp, maxGain);
-        BassBoostEnable(dsp);
-    }
-    else
-    {
-        BassBoostDisable(dsp);
-    }
+    submitCommand(wrapper, dsp, { DspCommandType::BassBoost, (bool)enable, { maxGain } });
     return true;
 }
 
@@ -569,12 +1131,7 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setStereoEnhanc
                                                                                      jboolean enable, jfloat level)
 {
     DECLARE_DSP_B
-    StereoEnhancementDisable(dsp);
-    StereoEnhancementSetParam(dsp, level / 100.0f);
-    if(enable)
-    {
-        StereoEnhancementEnable(dsp);
-    }
+    submitCommand(wrapper, dsp, { DspCommandType::StereoEnhancement, (bool)enable, { level } });
     return true;
 }
 
@@ -583,15 +1140,7 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setVacuumTube(J
                                                                               jboolean enable, jfloat level)
 {
     DECLARE_DSP_B
-    if(enable)
-    {
-        VacuumTubeSetGain(dsp, level / 100.0f);
-        VacuumTubeEnable(dsp);
-    }
-    else
-    {
-        VacuumTubeDisable(dsp);
-    }
+    submitCommand(wrapper, dsp, { DspCommandType::VacuumTube, (bool)enable, { level } });
     return true;
 }
 
@@ -604,9 +1153,27 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setLiveprog(JNI
     // Attach log listener
     setStdOutHandler(receiveLiveprogStdOut, wrapper);
 
-    LiveProgDisable(dsp);
-
     const char *nativeString = env->GetStringUTFChars(liveprogContent, nullptr);
+    auto hash = std::hash<std::string_view>()(std::string_view(nativeString));
+
+    // The same script has already been compiled successfully at this sample rate; only toggle it
+    auto compiledHash = wrapper->liveprogHash.load();
+    if(compiledHash != 0 && compiledHash == hash && wrapper->liveprogSampleRate == dsp->fs)
+    {
+        LOGD("JamesDspWrapper::setLiveprog: script unchanged, reusing compiled program")
+        env->ReleaseStringUTFChars(liveprogContent, nativeString);
+        submitCommand(wrapper, dsp, { DspCommandType::Liveprog, (bool)enable });
+        wrapper->liveprogActive.store(enable);
+        return true;
+    }
+
+    DECLARE_RECONFIGURATION
+
+    // Already crossfading; apply the stage state directly instead of through submitCommand, which would re-enter the guard
+    applyCommandNow(wrapper, dsp, { DspCommandType::Liveprog, false });
+    wrapper->liveprogActive.store(false);
+    wrapper->liveprogHash.store(0);
+
     if(strlen(nativeString) < 1) {
         LOGD("JamesDspWrapper::setLiveprog: empty file")
         env->ReleaseStringUTFChars(liveprogContent, nativeString);
@@ -630,15 +1197,18 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_setLiveprog(JNI
     {
         LOGW("JamesDspWrapper::setLiveprog: %s", checkErrorCode(ret));
     }
+    else if(errorString == nullptr)
+    {
+        wrapper->liveprogSampleRate = dsp->fs;
+        wrapper->liveprogHash.store(hash);
+    }
 
     jstring errorStringJni = env->NewStringUTF(errorString);
     env->CallVoidMethod(wrapper->callbackInterface, wrapper->callbackOnLiveprogResult, ret, id, errorStringJni);
     env->DeleteLocalRef(errorStringJni);
 
-    if(enable)
-        LiveProgEnable(dsp);
-    else
-        LiveProgDisable(dsp);
+    applyCommandNow(wrapper, dsp, { DspCommandType::Liveprog, (bool)enable });
+    wrapper->liveprogActive.store(enable);
     return true;
 }
 
@@ -726,6 +1296,14 @@ Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_freezeLiveprogE
     LOGD("JamesDspWrapper::freezeLiveprogExecution: Liveprog execution has been %s", (freeze ? "frozen" : "resumed"));
 }
 
+extern "C" JNIEXPORT void JNICALL
+Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_invalidateLiveprogCache(JNIEnv *env, jobject obj, jlong self)
+{
+    DECLARE_WRAPPER_V
+    // Force the next setLiveprog call to recompile and re-run @init
+    wrapper->liveprogHash.store(0);
+}
+
 extern "C" JNIEXPORT jstring JNICALL
 Java_me_timschneeberger_rootlessjamesdsp_interop_JamesDspWrapper_eelErrorCodeToString(JNIEnv *env,
                                                                                      jobject obj,
@@ -744,7 +1322,11 @@ void receiveLiveprogStdOut(const char *buffer, void* userData)
         return;
     }
 
-    self->env->CallVoidMethod(self->callbackInterface, self->callbackOnLiveprogOutput, self->env->NewStringUTF(buffer));
+    // Usually called on the audio thread; never block or call into the JVM here
+    self->liveprogOutput.write(buffer);
+    // Wake the delivery thread once per batch; dropped messages are reported by it as well
+    if(!self->liveprogOutputPending.exchange(true))
+        sem_post(&self->liveprogOutputSignal);
 }
 
 extern "C" JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *, void *)
@@ -2,16 +2,91 @@
 #define DSPHOST_H
 
 #include <jni.h>
+#include <atomic>
+#include <mutex>
+#include <thread>
+#include <vector>
+#include <semaphore.h>
+#include <string>
+
+#include "DspCommandQueue.h"
+#include "DspParameterSlot.h"
+#include "LiveprogOutputBuffer.h"
+#include "ProcessingPipeline.h"
+
+typedef struct
+{
+    int filterType;
+    int interpolationMode;
+    double bands[30];
+} MultiEqualizerParams;
+
+typedef struct
+{
+    float timeConstant;
+    int granularity;
+    int tfResolution;
+    double bands[14];
+} CompanderParams;
 
 typedef struct
 {
     void* dsp;
-    JNIEnv* env;
+    JavaVM* vm;
     jobject callbackInterface;
     jmethodID callbackOnLiveprogOutput;
     jmethodID callbackOnLiveprogExec;
     jmethodID callbackOnLiveprogResult;
     jmethodID callbackOnVdcParseError;
+
+    /* Lightweight parameter changes, applied by the audio thread at the next block boundary */
+    DspCommandQueue<64> commandQueue;
+    /* Parameter-only updates of enabled stages, applied by the audio thread at the next block boundary */
+    DspParameterSlot<MultiEqualizerParams> multiEqualizerParams;
+    DspParameterSlot<CompanderParams> companderParams;
+    DspParameterSlot<std::string> graphicEqParams;
+    /* Last submitted enable state per command type; only accessed by the submitting threads */
+    bool stageEnabled[DSP_COMMAND_TYPE_COUNT] = {};
+    /* Hash of the last successfully loaded VDC contents; only accessed by the sync thread */
+    size_t vdcHash = 0;
+    /* Number of heavy reconfigurations in progress; the audio thread passes audio through while non-zero */
+    std::atomic<int> reconfiguring{0};
+    /* Set while the audio thread is inside a process call */
+    std::atomic<bool> processing{false};
+
+    /* Crossfade state around heavy reconfigurations */
+    std::mutex reconfigurationMutex;
+    std::atomic<bool> fadeOutRequested{false};
+    std::atomic<bool> fadedOut{false};
+    std::atomic<int64_t> lastBlockTime{0};
+    /* Owned by the audio thread */
+    bool isWet = false;
+    std::vector<uint8_t> dryScratch;
+
+    /* Silence detection; skips the effect chain once the input has been silent for longer than the effect tails */
+    std::atomic<bool> silenceBypass{false};
+    std::atomic<bool> liveprogActive{false};
+    std::atomic<int> convolverFrames{0};
+    /* Owned by the audio thread */
+    int64_t silentFrames = 0;
+
+    /* Optional worker thread running the effect chain one block behind the caller */
+    ProcessingPipeline* pipeline = nullptr;
+    std::atomic<bool> pipelined{false};
+
+    /* Identifies the currently compiled Liveprog program; only set after a successful compilation.
+     * Cleared from any thread by invalidateLiveprogCache */
+    std::atomic<size_t> liveprogHash{0};
+    /* Only accessed by the sync thread */
+    float liveprogSampleRate = 0;
+
+    /* EEL stdout, drained and delivered to Java by a background thread */
+    LiveprogOutputBuffer<16384> liveprogOutput;
+    std::thread liveprogOutputThread;
+    /* Posted when output becomes pending or on shutdown; sem_post never blocks, so the audio thread can signal it */
+    sem_t liveprogOutputSignal;
+    std::atomic<bool> liveprogOutputPending{false};
+    std::atomic<bool> liveprogOutputStop{false};
 } JamesDspWrapper;
 
 /* C interop function */
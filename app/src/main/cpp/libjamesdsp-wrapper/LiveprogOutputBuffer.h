@@ -0,0 +1,82 @@
+#ifndef ROOTLESSJAMESDSP_LIVEPROGOUTPUTBUFFER_H
+#define ROOTLESSJAMESDSP_LIVEPROGOUTPUTBUFFER_H
+
+#include <algorithm>
+#include <atomic>
+#include <cstdint>
+#include <cstring>
+#include <string>
+
+/*
+ * Bounded lock-free byte ring buffer for EEL stdout.
+ * Writers (usually the audio thread) never block or allocate: if the ring is full or another writer
+ * is active, the message is dropped and counted instead. A single consumer drains it in batches.
+ */
+template<size_t Capacity>
+class LiveprogOutputBuffer {
+    static_assert((Capacity & (Capacity - 1)) == 0, "Capacity must be a power of two");
+
+public:
+    bool write(const char* message)
+    {
+        if(message == nullptr)
+            return true;
+
+        if(writerActive.test_and_set(std::memory_order_acquire))
+        {
+            droppedMessages.fetch_add(1, std::memory_order_relaxed);
+            return false;
+        }
+
+        auto length = strlen(message);
+        auto head = writeIndex.load(std::memory_order_relaxed);
+        bool fits = Capacity - (head - readIndex.load(std::memory_order_acquire)) >= length;
+        if(fits)
+        {
+            auto offset = head & (Capacity - 1);
+            auto first = std::min(length, Capacity - offset);
+            memcpy(ring + offset, message, first);
+            memcpy(ring, message + first, length - first);
+            writeIndex.store(head + length, std::memory_order_release);
+        }
+        else
+        {
+            droppedMessages.fetch_add(1, std::memory_order_relaxed);
+        }
+
+        writerActive.clear(std::memory_order_release);
+        return fits;
+    }
+
+    /* Appends all pending output to 'out'; returns false if nothing was pending */
+    bool drain(std::string& out)
+    {
+        auto tail = readIndex.load(std::memory_order_relaxed);
+        auto head = writeIndex.load(std::memory_order_acquire);
+        if(tail == head)
+            return false;
+
+        auto length = head - tail;
+        auto offset = tail & (Capacity - 1);
+        auto first = std::min(length, Capacity - offset);
+        out.append(ring + offset, first);
+        out.append(ring, length - first);
+        readIndex.store(head, std::memory_order_release);
+        return true;
+    }
+
+    /* Returns and resets the number of messages dropped since the last call */
+    uint32_t takeDropped()
+    {
+        return droppedMessages.exchange(0, std::memory_order_relaxed);
+    }
+
+private:
+    char ring[Capacity]{};
+    std::atomic<size_t> writeIndex{0};
+    std::atomic<size_t> readIndex{0};
+    std::atomic<uint32_t> droppedMessages{0};
+    std::atomic_flag writerActive = ATOMIC_FLAG_INIT;
+};
+
+#endif //ROOTLESSJAMESDSP_LIVEPROGOUTPUTBUFFER_H
@@ -0,0 +1,161 @@
+#ifndef ROOTLESSJAMESDSP_PROCESSINGPIPELINE_H
+#define ROOTLESSJAMESDSP_PROCESSINGPIPELINE_H
+
+#include <atomic>
+#include <chrono>
+#include <condition_variable>
+#include <cstdint>
+#include <cstring>
+#include <mutex>
+#include <thread>
+#include <vector>
+#include <sys/resource.h>
+#include <unistd.h>
+
+/*
+ * Runs the effect chain on a dedicated worker thread, one block behind the caller.
+ * While the worker processes block N, the calling thread can write block N-1 to the output and capture
+ * block N+1, so processing no longer has to share the buffer period with blocking I/O.
+ * Adds exactly one block of latency. Blocks may vary in length; each call returns the previous block.
+ */
+class ProcessingPipeline {
+public:
+    typedef void (*ProcessFunc)(void* context, uint8_t* data, int frames, size_t sampleSize);
+
+    ProcessingPipeline(ProcessFunc func, void* context) : func(func), context(context) {}
+
+    ~ProcessingPipeline()
+    {
+        stop();
+    }
+
+    void start()
+    {
+        std::lock_guard<std::mutex> lock(mutex);
+        if(running)
+            return;
+
+        running = true;
+        stopRequested = false;
+        hasJob = false;
+        busy = false;
+        lastJobNs.store(0);
+        worker = std::thread(&ProcessingPipeline::run, this);
+    }
+
+    void stop()
+    {
+        {
+            std::lock_guard<std::mutex> lock(mutex);
+            if(!running)
+                return;
+            stopRequested = true;
+        }
+        condition.notify_all();
+        if(worker.joinable())
+            worker.join();
+
+        std::lock_guard<std::mutex> lock(mutex);
+        running = false;
+        hasJob = false;
+    }
+
+    /*
+     * Hands 'frames' frames in 'data' (interleaved stereo) to the worker and replaces them with the previously
+     * processed block, which may be shorter or longer (e.g. after a short read). 'data' must hold 'capacityFrames'.
+     * Returns the number of frames now in 'data', or -1 if the block must be processed synchronously instead.
+     * This happens while the pipeline is stopped, or when the pending block cannot be returned because the
+     * sample format changed or the caller's buffer shrank; the pending block is dropped in that case.
+     */
+    int exchange(uint8_t* data, int frames, int capacityFrames, size_t sampleSize)
+    {
+        std::unique_lock<std::mutex> lock(mutex);
+        if(!running)
+            return -1;
+
+        // Wait for the previous block
+        condition.wait(lock, [this] { return !busy; });
+
+        if(hasJob && (jobSampleSize != sampleSize || jobFrames > capacityFrames))
+        {
+            hasJob = false;
+            return -1;
+        }
+
+        auto bytes = (size_t)frames * 2 * sampleSize;
+        auto outFrames = hasJob ? jobFrames : frames;
+        auto outBytes = (size_t)outFrames * 2 * sampleSize;
+        // Only grows, so this rarely allocates
+        if(staging.size() < bytes)
+            staging.resize(bytes);
+
+        memcpy(staging.data(), data, bytes);
+        if(hasJob)
+            memcpy(data, work.data(), outBytes);
+        else
+            memset(data, 0, outBytes); // Pipeline is filling up
+
+        std::swap(staging, work);
+        jobFrames = frames;
+        jobSampleSize = sampleSize;
+        hasJob = true;
+        busy = true;
+
+        lock.unlock();
+        condition.notify_all();
+        return outFrames;
+    }
+
+    /* Time the worker spent processing the most recently completed block */
+    int64_t lastProcessingTimeNs() const
+    {
+        return lastJobNs.load(std::memory_order_relaxed);
+    }
+
+private:
+    void run()
+    {
+        // Same scheduling priority as the capture thread (THREAD_PRIORITY_URGENT_AUDIO)
+        setpriority(PRIO_PROCESS, gettid(), -19);
+
+        std::unique_lock<std::mutex> lock(mutex);
+        while(true)
+        {
+            condition.wait(lock, [this] { return busy || stopRequested; });
+            if(stopRequested)
+                break;
+
+            // The caller does not touch 'work' while busy
+            lock.unlock();
+            auto start = std::chrono::steady_clock::now();
+            func(context, work.data(), jobFrames, jobSampleSize);
+            lastJobNs.store(std::chrono::duration_cast<std::chrono::nanoseconds>(
+                    std::chrono::steady_clock::now() - start).count(), std::memory_order_relaxed);
+            lock.lock();
+
+            busy = false;
+            condition.notify_all();
+        }
+
+        busy = false;
+    }
+
+    ProcessFunc func;
+    void* context;
+
+    std::thread worker;
+    std::mutex mutex;
+    std::condition_variable condition;
+    bool running = false;
+    bool stopRequested = false;
+    bool busy = false;
+    bool hasJob = false;
+
+    std::vector<uint8_t> staging;
+    std::vector<uint8_t> work;
+    int jobFrames = 0;
+    size_t jobSampleSize = 0;
+    std::atomic<int64_t> lastJobNs{0};
+};
+
+#endif //ROOTLESSJAMESDSP_PROCESSINGPIPELINE_H
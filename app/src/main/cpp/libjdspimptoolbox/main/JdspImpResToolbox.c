@@ -1,40 +1,28 @@
 #include <jni.h>
 #include <stdlib.h>
 #include <string.h>
+#include <stdio.h>
 #include <math.h>
 #include <stdint.h>
 
 #include <jdsp_header.h>
 
-void channel_splitFloat(float *buffer, unsigned int num_frames, float **chan_buffers, unsigned int num_channels)
+static inline int32_t crc32UpdateFloat(int32_t crc, float value)
 {
-	unsigned int i, samples = num_frames * num_channels;
-	for (i = 0; i < samples; i++)
-		chan_buffers[i % num_channels][i / num_channels] = buffer[i];
-}
-int32_t channel_joinFloat_crc(float **chan_buffers, unsigned int num_channels, float *buffer, unsigned int num_frames)
-{
-    unsigned int i, samples = num_frames * num_channels;
     union
     {
         int32_t raw;
         float f;
     } fltInt;
-    int32_t crc = 0xFFFFFFFF;
-    for (i = 0; i < samples; i++)
+    fltInt.f = value;
+    crc = crc ^ fltInt.raw;
+    for (int j = 7; j >= 0; j--)
     {
-        buffer[i] = chan_buffers[i % num_channels][i / num_channels];
-        fltInt.f = buffer[i];
-        crc = crc ^ fltInt.raw;
-        for (int j = 7; j >= 0; j--)
-        {
-            int32_t mask = -(crc & 1);
-            crc = (crc >> 1) ^ (0xEDB88320 & mask);
-        }
+        int32_t mask = -(crc & 1);
+        crc = (crc >> 1) ^ (0xEDB88320 & mask);
     }
-    return ~crc;
+    return crc;
 }
-
 unsigned int LLIntegerLog2(unsigned int v)
 {
 	unsigned int i = 0;
@@ -330,91 +318,257 @@ void circshift(float *x, int n, int k)
 }
 #define NUMPTS 15
 #define NUMPTS_DRS (7)
-ierper pch1, pch2, pch3;
+/*
+ * Interpolator state and scratch buffers for the response functions below.
+ * Allocated once per caller; calls sharing a context must not run concurrently, separate contexts may.
+ */
+typedef struct
+{
+	double freq[NUMPTS + 2];
+	double gain[NUMPTS + 2];
+	double freqComp[NUMPTS_DRS + 2];
+	double gainComp[NUMPTS_DRS + 2];
+	ierper pch1, pch2, pch3;
+	// Cached per-section complex responses of the IIR equalizer, see ComputeIIREqualizerCplxIncremental
+	int iirValid;
+	int iirOrder;
+	int iirPts;
+	double iirFreq[NUMPTS];
+	double iirGain[NUMPTS];
+	double *iirDispFreq;
+	double *iirSectionRe;
+	double *iirSectionIm;
+	// Copies of the caller's display frequency and output arrays, so the filter design runs outside of JNI critical sections
+	int scratchPts;
+	double *scratchDispFreq;
+	double *scratchRe;
+	double *scratchIm;
+} eqResponseContext;
 __attribute__((constructor)) static void initialize(void)
 {
 	if (decompressedCoefficients)
 		free(decompressedCoefficients);
 	decompressedCoefficients = (float*)malloc(22438 * sizeof(float));
 	decompressResamplerMQ(compressedCoeffMQ, decompressedCoefficients);
-	initIerper(&pch1, NUMPTS + 2);
-    initIerper(&pch2, NUMPTS + 2);
-    initIerper(&pch3, NUMPTS_DRS + 2);
 }
 __attribute__((destructor)) static void destruction(void)
 {
 	free(decompressedCoefficients);
 	decompressedCoefficients = 0;
-	freeIerper(&pch1);
-	freeIerper(&pch2);
-    freeIerper(&pch3);
 }
-void JamesDSPOfflineResampling(float const *in, float *out, size_t lenIn, size_t lenOut, int channels, double src_ratio, int resampleQuality)
+// Frames decoded/resampled per step; bounds the temporary memory independently of the IR length
+#define IR_STREAM_CHUNK_FRAMES 4096
+enum
+{
+	IR_STREAM_WAV,
+	IR_STREAM_FLAC,
+	IR_STREAM_MP3
+};
+typedef struct
+{
+	int type;
+	int opened;
+	drwav wav;
+	drflac *flac;
+	drmp3 mp3;
+	unsigned int channels;
+	unsigned int fs;
+	drwav_uint64 frameCount;
+	// Output at the target sample rate
+	SRC_STATE *src;
+	double ratio;
+	drwav_uint64 outFrameCount;
+	drwav_uint64 outFramesRead;
+	float *decodeBuf;
+} irStream;
+static drwav_uint64 irStreamDecode(irStream *s, drwav_uint64 frames, float *out)
 {
-	if (lenOut == lenIn && lenIn == 1)
+	switch (s->type)
 	{
-		memcpy(out, in, channels * sizeof(float));
-		return;
+	case IR_STREAM_WAV:
+		return drwav_read_pcm_frames_f32(&s->wav, frames, out);
+	case IR_STREAM_FLAC:
+		return drflac_read_pcm_frames_f32(s->flac, frames, out);
+	default:
+		return drmp3_read_pcm_frames_f32(&s->mp3, frames, out);
 	}
-	SRC_DATA src_data;
-	memset(&src_data, 0, sizeof(src_data));
-	src_data.data_in = in;
-	src_data.data_out = out;
-	src_data.input_frames = lenIn;
-	src_data.output_frames = lenOut;
-	src_data.src_ratio = src_ratio;
-	int error;
-	if ((error = src_simple(&src_data, resampleQuality, channels)))
-	{
-//		printf("\n%s\n\n", src_strerror(error));
-	}
-}
-float* loadAudioFile(const char *filename, double targetFs, unsigned int *channels, drwav_uint64 *totalPCMFrameCount, int resampleQuality)
-{
-	unsigned int fs = 1;
-    const char *ext = get_filename_ext(filename);
-    float *pSampleData = 0;
-    if (!strncmp(ext, "wav", 5) || !strncmp(ext, "irs", 5))
-        pSampleData = drwav_open_file_and_read_pcm_frames_f32(filename, channels, &fs, totalPCMFrameCount, 0);
-    if (!strncmp(ext, "flac", 5))
-        pSampleData = drflac_open_file_and_read_pcm_frames_f32(filename, channels, &fs, totalPCMFrameCount, 0);
-    if (!strncmp(ext, "mp3", 5))
-    {
-        drmp3_config mp3Conf;
-        pSampleData = drmp3_open_file_and_read_pcm_frames_f32(filename, &mp3Conf, totalPCMFrameCount, 0);
-        *channels = mp3Conf.channels;
-        fs = mp3Conf.sampleRate;
-    }
-	if (pSampleData == NULL)
+}
+static long irStreamSrcCallback(void *cb_data, float **data)
+{
+	irStream *s = (irStream*)cb_data;
+	*data = s->decodeBuf;
+	return (long)irStreamDecode(s, IR_STREAM_CHUNK_FRAMES, s->decodeBuf);
+}
+void irStreamClose(irStream *s)
+{
+	if (s->src)
+		src_delete(s->src);
+	s->src = 0;
+	free(s->decodeBuf);
+	s->decodeBuf = 0;
+	if (s->opened)
+	{
+		if (s->type == IR_STREAM_WAV)
+			drwav_uninit(&s->wav);
+		else if (s->type == IR_STREAM_FLAC)
+			drflac_close(s->flac);
+		else
+			drmp3_uninit(&s->mp3);
+	}
+	s->opened = 0;
+}
+// Opens the file and reads its header only; samples are decoded and resampled on demand by irStreamRead
+int irStreamOpen(irStream *s, const char *filename, double targetFs, int resampleQuality)
+{
+	memset(s, 0, sizeof(irStream));
+	const char *ext = get_filename_ext(filename);
+	if (!strncmp(ext, "wav", 5) || !strncmp(ext, "irs", 5))
+	{
+		s->type = IR_STREAM_WAV;
+		s->opened = drwav_init_file(&s->wav, filename, 0);
+		if (s->opened)
+		{
+			s->channels = s->wav.channels;
+			s->fs = s->wav.sampleRate;
+			s->frameCount = s->wav.totalPCMFrameCount;
+		}
+	}
+	else if (!strncmp(ext, "flac", 5))
+	{
+		s->type = IR_STREAM_FLAC;
+		s->flac = drflac_open_file(filename, 0);
+		s->opened = s->flac != 0;
+		if (s->opened)
+		{
+			s->channels = s->flac->channels;
+			s->fs = s->flac->sampleRate;
+			s->frameCount = s->flac->totalPCMFrameCount;
+		}
+	}
+	else if (!strncmp(ext, "mp3", 5))
+	{
+		s->type = IR_STREAM_MP3;
+		s->opened = drmp3_init_file(&s->mp3, filename, 0);
+		if (s->opened)
+		{
+			s->channels = s->mp3.channels;
+			s->fs = s->mp3.sampleRate;
+			// Scans the frame headers and seeks back to the start
+			s->frameCount = drmp3_get_pcm_frame_count(&s->mp3);
+		}
+	}
+	if (!s->opened)
 	{
 		printf("Error opening and reading WAV file");
 		return 0;
 	}
 	// Sanity check
-	if (*channels < 1)
+	if (s->channels < 1)
 	{
 		printf("Invalid audio channels count");
-		free(pSampleData);
+		irStreamClose(s);
 		return 0;
 	}
-	if ((*totalPCMFrameCount <= 0) || (*totalPCMFrameCount <= 0))
+	if ((s->frameCount <= 0) || (s->fs <= 0))
 	{
 		printf("Invalid audio sample rate / frame count");
-		free(pSampleData);
+		irStreamClose(s);
 		return 0;
 	}
-	double ratio = targetFs / (double)fs;
-	if (ratio != 1.0)
+	s->decodeBuf = (float*)malloc(IR_STREAM_CHUNK_FRAMES * s->channels * sizeof(float));
+	if (!s->decodeBuf)
 	{
-		int compressedLen = (int)ceil(*totalPCMFrameCount * ratio);
-		float *tmpBuf = (float*)malloc(compressedLen * *channels * sizeof(float));
-		memset(tmpBuf, 0, compressedLen * *channels * sizeof(float));
-		JamesDSPOfflineResampling(pSampleData, tmpBuf, *totalPCMFrameCount, compressedLen, *channels, ratio, resampleQuality);
-		*totalPCMFrameCount = compressedLen;
-		free(pSampleData);
-		return tmpBuf;
+		printf("Failed to allocate decode buffer");
+		irStreamClose(s);
+		return 0;
 	}
-	return pSampleData;
+	s->ratio = targetFs / (double)s->fs;
+	s->outFrameCount = s->frameCount;
+	if (s->ratio != 1.0)
+	{
+		s->outFrameCount = (drwav_uint64)ceil(s->frameCount * s->ratio);
+		// A single frame stays a single frame
+		if (s->outFrameCount == 1 && s->frameCount == 1)
+			return 1;
+		int error;
+		s->src = src_callback_new(irStreamSrcCallback, resampleQuality, s->channels, &error, s);
+		if (!s->src)
+		{
+			irStreamClose(s);
+			return 0;
+		}
+	}
+	return 1;
+}
+// Reads up to 'frames' interleaved frames at the target sample rate. Returns 0 once outFrameCount frames have been read;
+// pads with silence if the decoder or resampler delivers less than expected.
+drwav_uint64 irStreamRead(irStream *s, drwav_uint64 frames, float *out)
+{
+	drwav_uint64 remaining = s->outFrameCount - s->outFramesRead;
+	if (frames > remaining)
+		frames = remaining;
+	if (!frames)
+		return 0;
+	drwav_uint64 got;
+	if (s->src)
+	{
+		long res = src_callback_read(s->src, s->ratio, (long)frames, out);
+		got = res > 0 ? (drwav_uint64)res : 0;
+	}
+	else
+		got = irStreamDecode(s, frames, out);
+	if (got < frames)
+		memset(out + got * s->channels, 0, (frames - got) * s->channels * sizeof(float));
+	s->outFramesRead += frames;
+	return frames;
+}
+// Streams the remaining output into per-channel buffers, which must hold at least outFrameCount frames.
+// Returns 0 if the chunk buffer cannot be allocated.
+int irStreamReadDeinterleaved(irStream *s, float **chanBuffers)
+{
+	float *chunk = (float*)malloc(IR_STREAM_CHUNK_FRAMES * s->channels * sizeof(float));
+	if (!chunk)
+		return 0;
+	drwav_uint64 pos = s->outFramesRead, got;
+	while ((got = irStreamRead(s, IR_STREAM_CHUNK_FRAMES, chunk)) > 0)
+	{
+		for (drwav_uint64 i = 0; i < got; i++)
+			for (unsigned int c = 0; c < s->channels; c++)
+				chanBuffers[c][pos + i] = chunk[i * s->channels + c];
+		pos += got;
+	}
+	free(chunk);
+	return 1;
+}
+// Interleaves the channel buffers straight into a new Java array in chunks and computes the CRC over the interleaved samples
+jfloatArray channel_joinFloatToArray_crc(JNIEnv *env, float **chan_buffers, unsigned int num_channels, unsigned int num_frames, int32_t *crcOut)
+{
+	jfloatArray outbuf = (*env)->NewFloatArray(env, (jsize)(num_frames * num_channels));
+	if (!outbuf)
+		return 0;
+	float *chunk = (float*)malloc(IR_STREAM_CHUNK_FRAMES * num_channels * sizeof(float));
+	if (!chunk)
+	{
+		(*env)->DeleteLocalRef(env, outbuf);
+		return 0;
+	}
+	int32_t crc = 0xFFFFFFFF;
+	for (unsigned int start = 0; start < num_frames; start += IR_STREAM_CHUNK_FRAMES)
+	{
+		unsigned int frames = num_frames - start;
+		if (frames > IR_STREAM_CHUNK_FRAMES)
+			frames = IR_STREAM_CHUNK_FRAMES;
+		unsigned int i, samples = frames * num_channels;
+		for (i = 0; i < samples; i++)
+		{
+			chunk[i] = chan_buffers[i % num_channels][start + i / num_channels];
+			crc = crc32UpdateFloat(crc, chunk[i]);
+		}
+		(*env)->SetFloatArrayRegion(env, outbuf, (jsize)(start * num_channels), (jsize)samples, chunk);
+	}
+	free(chunk);
+	*crcOut = ~crc;
+	return outbuf;
 }
 
 int validateAdvImpParameter(int frameCount, int convMode, jint* advSetPtr, jsize advSetSize) {
@@ -432,18 +586,25 @@ JNIEXPORT jfloatArray JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_J
 {
 	const char *mIRFileName = (*env)->GetStringUTFChars(env, path, 0);
 	if (strlen(mIRFileName) <= 0) return 0;
-	unsigned int channels;
-	drwav_uint64 frameCount;
-	float *pFrameBuffer = loadAudioFile(mIRFileName, targetSampleRate, &channels, &frameCount, 1);
+	irStream stream;
+	int opened = irStreamOpen(&stream, mIRFileName, targetSampleRate, 1);
+	(*env)->ReleaseStringUTFChars(env, path, mIRFileName);
+	if (!opened)
+		return 0;
+	unsigned int channels = stream.channels;
+	drwav_uint64 frameCount = stream.outFrameCount;
+	// Reject unsupported layouts before anything is decoded
 	if (channels == 0 || channels == 3 || channels > 4)
 	{
-		free(pFrameBuffer);
+		irStreamClose(&stream);
 		return 0;
 	}
 	jint *javaAdvSetPtr = (jint*) (*env)->GetIntArrayElements(env, jadvParam, 0);
     jsize javaAdvSetSize = (*env)->GetArrayLength(env, jadvParam);
 
     if(javaAdvSetSize != 6) {
+        (*env)->ReleaseIntArrayElements(env, jadvParam, javaAdvSetPtr, JNI_ABORT);
+        irStreamClose(&stream);
         return 0;
     }
 
@@ -459,25 +620,35 @@ JNIEXPORT jfloatArray JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_J
     }
 
 	int i;
-	float *splittedBuffer[4];
+	float *splittedBuffer[4] = { 0 };
 	int alloc = frameCount;
 	if (alloc < 8)
 		alloc = 8;
-	for (i = 0; i < channels; i++)
+	int allocated = 1;
+	for (i = 0; i < channels && allocated; i++)
 	{
 		if (convMode == 2)
-		{
-			splittedBuffer[i] = (float*)malloc(alloc * 2 * sizeof(float));
-			memset(splittedBuffer[i], 0, alloc * 2 * sizeof(float));
-		}
+			splittedBuffer[i] = (float*)calloc(alloc * 2, sizeof(float));
 		else
 			splittedBuffer[i] = (float*)malloc(frameCount * sizeof(float));
+		allocated = splittedBuffer[i] != 0;
+	}
+	// Decode, resample and deinterleave chunk by chunk, directly into the channel buffers
+	if (allocated)
+		allocated = irStreamReadDeinterleaved(&stream, splittedBuffer);
+	irStreamClose(&stream);
+	if (!allocated)
+	{
+		printf("Failed to allocate impulse response buffers");
+		for (i = 0; i < channels; i++)
+			free(splittedBuffer[i]);
+		(*env)->ReleaseIntArrayElements(env, jadvParam, javaAdvSetPtr, JNI_ABORT);
+		return 0;
 	}
-	channel_splitFloat(pFrameBuffer, frameCount, splittedBuffer, channels);
     int32_t crc32;
+	jfloatArray outbuf;
 	if (convMode > 0)
 	{
-		free(pFrameBuffer);
 		int range[2];
 		float startCutdB = javaAdvSetPtr[0];
 		float endCutdB = javaAdvSetPtr[1];
@@ -511,6 +682,12 @@ JNIEXPORT jfloatArray JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_J
 			int taskPerThread = channels / (spawnNthread + 1);
 			pthread_t *pthread = (pthread_t*)malloc(spawnNthread * sizeof(pthread_t));
 			mpsThread *th = (mpsThread*)malloc(spawnNthread * sizeof(mpsThread));
+			if (spawnNthread > 0 && (!pthread || !th))
+			{
+				// Process all channels on this thread instead
+				spawnNthread = 0;
+				taskPerThread = channels;
+			}
 			for (i = 0; i < spawnNthread; i++)
 			{
 				th[i].rangeMin = (i + 1) * taskPerThread;
@@ -521,7 +698,8 @@ JNIEXPORT jfloatArray JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_J
 				th[i].y = splittedBuffer;
 				th[i].sampleShift = range[0];
 			}
-			th[spawnNthread - 1].rangeMax = channels;
+			if (spawnNthread > 0)
+				th[spawnNthread - 1].rangeMax = channels;
 			for (i = 0; i < spawnNthread; i++)
 				pthread_create(&pthread[i], 0, mpsMulticore, &th[i]);
 			for (i = 0; i < taskPerThread; i++)
@@ -541,10 +719,8 @@ JNIEXPORT jfloatArray JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_J
 					outPtr[i][j] = 0.0f;
 			}
 		}
-		unsigned int totalFrames = xLen * channels;
 		frameCount = xLen;
-		pFrameBuffer = (float*)malloc(totalFrames * sizeof(float));
-        crc32 = channel_joinFloat_crc(outPtr, channels, pFrameBuffer, xLen);
+		outbuf = channel_joinFloatToArray_crc(env, outPtr, channels, xLen, &crc32);
 	}
 	else
 	{
@@ -554,23 +730,19 @@ JNIEXPORT jfloatArray JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_J
 			for (int j = 0; j < javaAdvSetPtr[i + 2] - 1; j++)
 				splittedBuffer[i][j] = 0.0f;
 		}
-        crc32 = channel_joinFloat_crc(splittedBuffer, channels, pFrameBuffer, frameCount);
+		outbuf = channel_joinFloatToArray_crc(env, splittedBuffer, channels, frameCount, &crc32);
 	}
 	for (i = 0; i < channels; i++)
 		free(splittedBuffer[i]);
 	(*env)->ReleaseIntArrayElements(env, jadvParam, javaAdvSetPtr, 0);
+	if (!outbuf)
+		return 0;
 	jint *javaBasicInfoPtr = (jint*) (*env)->GetIntArrayElements(env, jImpInfo, 0);
 	javaBasicInfoPtr[0] = (int)channels;
 	javaBasicInfoPtr[1] = (int)frameCount;
 	javaBasicInfoPtr[2] = (int)crc32;
     javaBasicInfoPtr[3] = (int)isAdvSetValid;
     (*env)->SetIntArrayRegion(env, jImpInfo, 0, 4, javaBasicInfoPtr);
-	jfloatArray outbuf;
-	int frameCountTotal = channels * frameCount;
-	size_t bufferSize = frameCountTotal * sizeof(float);
-	outbuf = (*env)->NewFloatArray(env, (jsize)frameCountTotal);
-	(*env)->SetFloatArrayRegion(env, outbuf, 0, (jsize)frameCountTotal, pFrameBuffer);
-	free(pFrameBuffer);
 	return outbuf;
 }
 JNIEXPORT jstring JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_OfflineAudioResample
@@ -582,112 +754,219 @@ JNIEXPORT jstring JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspI
 	if (strlen(mIRFileName) <= 0) return 0;
 	size_t needed = snprintf(NULL, 0, "%s%s", jnipath, mIRFileName) + 1;
 	char *filenameIR = malloc(needed);
-	snprintf(filenameIR, needed, "%s%s", jnipath, mIRFileName);
-	unsigned int channels;
-	drwav_uint64 frameCount;
-	float *pFrameBuffer = loadAudioFile(filenameIR, targetSampleRate, &channels, &frameCount, 0);
-	free(filenameIR);
-	if (!pFrameBuffer)
+	int opened = 0;
+	irStream stream;
+	if (filenameIR)
 	{
-		needed = snprintf(NULL, 0, "Invalid") + 1;
-		filenameIR = malloc(needed);
-		snprintf(filenameIR, needed, "Invalid");
+		snprintf(filenameIR, needed, "%s%s", jnipath, mIRFileName);
+		opened = irStreamOpen(&stream, filenameIR, targetSampleRate, 0);
+		free(filenameIR);
+		filenameIR = 0;
 	}
-	else
+	if (opened && stream.fs == (unsigned int)targetSampleRate)
 	{
-		needed = snprintf(NULL, 0, "%s%d_%s", jnipath, targetSampleRate, mIRFileName) + 1;
+		// Already at the target rate; a copy would be identical, so return the source itself
+		needed = snprintf(NULL, 0, "%s%s", jnipath, mIRFileName) + 1;
 		filenameIR = malloc(needed);
-		snprintf(filenameIR, needed, "%s%d_%s", jnipath, targetSampleRate, mIRFileName);
+		if (filenameIR)
+			snprintf(filenameIR, needed, "%s%s", jnipath, mIRFileName);
+		irStreamClose(&stream);
+		opened = 0;
+	}
+	char *tempIR = 0;
+	if (opened)
+	{
+		needed = snprintf(NULL, 0, "%s%d_%s.part", jnipath, targetSampleRate, mIRFileName) + 1;
+		tempIR = malloc(needed);
+	}
+	if (tempIR)
+	{
+		// Written to a temporary file first and renamed once complete, so an interrupted run never leaves a truncated output behind
+		snprintf(tempIR, needed, "%s%d_%s.part", jnipath, targetSampleRate, mIRFileName);
 		drwav pWav;
 		drwav_data_format format;
 		format.container = drwav_container_riff;
 		format.format = DR_WAVE_FORMAT_IEEE_FLOAT;
-		format.channels = channels;
+		format.channels = stream.channels;
 		format.sampleRate = targetSampleRate;
 		format.bitsPerSample = 32;
-		unsigned int fail = drwav_init_file_write(&pWav, filenameIR, &format, 0);
-		drwav_uint64 framesWritten = drwav_write_pcm_frames(&pWav, frameCount, pFrameBuffer);
-		drwav_uninit(&pWav);
-		free(pFrameBuffer);
+		if (drwav_init_file_write(&pWav, tempIR, &format, 0))
+		{
+			// Resample chunk by chunk straight into the output file
+			float *chunk = (float*)malloc(IR_STREAM_CHUNK_FRAMES * stream.channels * sizeof(float));
+			int written = chunk != 0;
+			drwav_uint64 got;
+			if (chunk)
+			{
+				while ((got = irStreamRead(&stream, IR_STREAM_CHUNK_FRAMES, chunk)) > 0)
+				{
+					if (drwav_write_pcm_frames(&pWav, got, chunk) != got)
+					{
+						written = 0;
+						break;
+					}
+				}
+				free(chunk);
+			}
+			if (drwav_uninit(&pWav) != DRWAV_SUCCESS)
+				written = 0;
+			if (written)
+			{
+				needed = snprintf(NULL, 0, "%s%d_%s", jnipath, targetSampleRate, mIRFileName) + 1;
+				filenameIR = malloc(needed);
+				if (filenameIR)
+				{
+					snprintf(filenameIR, needed, "%s%d_%s", jnipath, targetSampleRate, mIRFileName);
+					if (rename(tempIR, filenameIR))
+					{
+						free(filenameIR);
+						filenameIR = 0;
+					}
+				}
+			}
+			if (!filenameIR)
+				remove(tempIR);
+		}
+		free(tempIR);
 	}
+	if (opened)
+		irStreamClose(&stream);
 	(*env)->ReleaseStringUTFChars(env, path, jnipath);
 	(*env)->ReleaseStringUTFChars(env, filename, mIRFileName);
-	jstring finalName = (*env)->NewStringUTF(env, filenameIR);
+	jstring finalName = (*env)->NewStringUTF(env, filenameIR ? filenameIR : "Invalid");
 	free(filenameIR);
 	return finalName;
 }
-double freq[NUMPTS + 2];
-double gain[NUMPTS + 2];
+JNIEXPORT jlong JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_CreateEqResponseContext(JNIEnv *env, jobject obj)
+{
+	eqResponseContext *ctx = (eqResponseContext*)malloc(sizeof(eqResponseContext));
+	if (!ctx)
+		return 0;
+	memset(ctx, 0, sizeof(eqResponseContext));
+	initIerper(&ctx->pch1, NUMPTS + 2);
+	initIerper(&ctx->pch2, NUMPTS + 2);
+	initIerper(&ctx->pch3, NUMPTS_DRS + 2);
+	return (jlong)(intptr_t)ctx;
+}
+
+JNIEXPORT void JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_DestroyEqResponseContext(JNIEnv *env, jobject obj, jlong handle)
+{
+	eqResponseContext *ctx = (eqResponseContext*)(intptr_t)handle;
+	if (!ctx)
+		return;
+	freeIerper(&ctx->pch1);
+	freeIerper(&ctx->pch2);
+	freeIerper(&ctx->pch3);
+	free(ctx->iirDispFreq);
+	free(ctx->iirSectionRe);
+	free(ctx->iirSectionIm);
+	free(ctx->scratchDispFreq);
+	free(ctx->scratchRe);
+	free(ctx->scratchIm);
+	free(ctx);
+}
+
+// Grows the scratch buffers to hold at least nPts points; returns 0 if allocation fails
+static int ensureIirScratch(eqResponseContext *ctx, int nPts)
+{
+	if (ctx->scratchPts >= nPts)
+		return 1;
+	free(ctx->scratchDispFreq);
+	free(ctx->scratchRe);
+	free(ctx->scratchIm);
+	ctx->scratchDispFreq = (double*)malloc(nPts * sizeof(double));
+	ctx->scratchRe = (double*)malloc(nPts * sizeof(double));
+	ctx->scratchIm = (double*)malloc(nPts * sizeof(double));
+	if (!ctx->scratchDispFreq || !ctx->scratchRe || !ctx->scratchIm)
+	{
+		free(ctx->scratchDispFreq);
+		free(ctx->scratchRe);
+		free(ctx->scratchIm);
+		ctx->scratchDispFreq = ctx->scratchRe = ctx->scratchIm = 0;
+		ctx->scratchPts = 0;
+		return 0;
+	}
+	ctx->scratchPts = nPts;
+	return 1;
+}
+
+/*
+ * The response functions copy the (small) band arrays into the context. The interpolators access the caller's
+ * display frequency and output arrays directly, the IIR functions copy them into the context's scratch buffers;
+ * nothing is allocated per call once the buffers have grown to the display size.
+ */
 JNIEXPORT jint JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_ComputeEqResponse
-(JNIEnv *env, jobject obj, jint n, jdoubleArray jfreq, jdoubleArray jgain, jint interpolationMode, jint queryPts, jdoubleArray dispFreq, jfloatArray response)
-{
-	jdouble *javaFreqPtr = (jdouble*) (*env)->GetDoubleArrayElements(env, jfreq, 0);
-	jdouble *javaGainPtr = (jdouble*) (*env)->GetDoubleArrayElements(env, jgain, 0);
-	jdouble *javadispFreqPtr = (jdouble*) (*env)->GetDoubleArrayElements(env, dispFreq, 0);
-	jfloat *javaResponsePtr = (jfloat*) (*env)->GetFloatArrayElements(env, response, 0);
-	memcpy(freq + 1, javaFreqPtr, NUMPTS * sizeof(double));
-	memcpy(gain + 1, javaGainPtr, NUMPTS * sizeof(double));
-	(*env)->ReleaseDoubleArrayElements(env, jfreq, javaFreqPtr, 0);
-	(*env)->ReleaseDoubleArrayElements(env, jgain, javaGainPtr, 0);
-	freq[0] = 0.0;
-	gain[0] = gain[1];
-	freq[NUMPTS + 1] = 24000.0;
-	gain[NUMPTS + 1] = gain[NUMPTS];
+(JNIEnv *env, jobject obj, jlong handle, jint n, jdoubleArray jfreq, jdoubleArray jgain, jint interpolationMode, jint queryPts, jdoubleArray dispFreq, jfloatArray response)
+{
+	eqResponseContext *ctx = (eqResponseContext*)(intptr_t)handle;
+	if (!ctx)
+		return -1;
+	(*env)->GetDoubleArrayRegion(env, jfreq, 0, NUMPTS, ctx->freq + 1);
+	(*env)->GetDoubleArrayRegion(env, jgain, 0, NUMPTS, ctx->gain + 1);
+	ctx->freq[0] = 0.0;
+	ctx->gain[0] = ctx->gain[1];
+	ctx->freq[NUMPTS + 1] = 24000.0;
+	ctx->gain[NUMPTS + 1] = ctx->gain[NUMPTS];
 	ierper *lerpPtr;
 	if (!interpolationMode)
 	{
-		pchip(&pch1, freq, gain, NUMPTS + 2, 1, 1);
-		lerpPtr = &pch1;
+		pchip(&ctx->pch1, ctx->freq, ctx->gain, NUMPTS + 2, 1, 1);
+		lerpPtr = &ctx->pch1;
 	}
 	else
 	{
-		makima(&pch2, freq, gain, NUMPTS + 2, 1, 1);
-		lerpPtr = &pch2;
+		makima(&ctx->pch2, ctx->freq, ctx->gain, NUMPTS + 2, 1, 1);
+		lerpPtr = &ctx->pch2;
 	}
+	jdouble *javadispFreqPtr = (jdouble*) (*env)->GetPrimitiveArrayCritical(env, dispFreq, 0);
+	jfloat *javaResponsePtr = (jfloat*) (*env)->GetPrimitiveArrayCritical(env, response, 0);
 	for (int i = 0; i < queryPts; i++)
 	{
 		javaResponsePtr[i] = (float)getValueAt(&lerpPtr->cb, javadispFreqPtr[i]);
 	}
-	(*env)->ReleaseDoubleArrayElements(env, dispFreq, javadispFreqPtr, 0);
-	(*env)->SetFloatArrayRegion(env, response, 0, queryPts, javaResponsePtr);
+	(*env)->ReleasePrimitiveArrayCritical(env, response, javaResponsePtr, 0);
+	(*env)->ReleasePrimitiveArrayCritical(env, dispFreq, javadispFreqPtr, JNI_ABORT);
 	return 0;
 }
 
-JNIEXPORT void JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_ComputeCompResponse(JNIEnv *env, jobject obj, jdoubleArray jfreq, jdoubleArray jgain, jint queryPts, jdoubleArray dispFreq, jfloatArray response)
+JNIEXPORT void JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_ComputeCompResponse(JNIEnv *env, jobject obj, jlong handle, jdoubleArray jfreq, jdoubleArray jgain, jint queryPts, jdoubleArray dispFreq, jfloatArray response)
 {
-    double freqComp[NUMPTS_DRS + 2];
-    double gainComp[NUMPTS_DRS + 2];
+    eqResponseContext *ctx = (eqResponseContext*)(intptr_t)handle;
+    if (!ctx)
+        return;
+    (*env)->GetDoubleArrayRegion(env, jfreq, 0, NUMPTS_DRS, ctx->freqComp + 1);
+    (*env)->GetDoubleArrayRegion(env, jgain, 0, NUMPTS_DRS, ctx->gainComp + 1);
 
-    jdouble *javaFreqPtr = (jdouble*) (*env)->GetDoubleArrayElements(env, jfreq, 0);
-    jdouble *javaGainPtr = (jdouble*) (*env)->GetDoubleArrayElements(env, jgain, 0);
-    jdouble *javadispFreqPtr = (jdouble*) (*env)->GetDoubleArrayElements(env, dispFreq, 0);
-    jfloat *javaResponsePtr = (jfloat*) (*env)->GetFloatArrayElements(env, response, 0);
+    ctx->freqComp[0] = 0.0;
+    ctx->gainComp[0] = ctx->gainComp[1];
+    ctx->freqComp[NUMPTS_DRS + 1] = 24000.0;
+    ctx->gainComp[NUMPTS_DRS + 1] = ctx->gainComp[NUMPTS_DRS];
+    makima(&ctx->pch3, ctx->freqComp, ctx->gainComp, NUMPTS_DRS + 2, 1, 1);
+    ierper *lerpPtr = &ctx->pch3;
 
-    memcpy(freqComp + 1, javaFreqPtr, NUMPTS_DRS * sizeof(double));
-    memcpy(gainComp + 1, javaGainPtr, NUMPTS_DRS * sizeof(double));
-    (*env)->ReleaseDoubleArrayElements(env, jfreq, javaFreqPtr, 0);
-    (*env)->ReleaseDoubleArrayElements(env, jgain, javaGainPtr, 0);
-
-    freqComp[0] = 0.0;
-    gainComp[0] = gainComp[1];
-    freqComp[NUMPTS_DRS + 1] = 24000.0;
-    gainComp[NUMPTS_DRS + 1] = gainComp[NUMPTS_DRS];
-    makima(&pch3, freqComp, gainComp, NUMPTS_DRS + 2, 1, 1);
-    ierper *lerpPtr = &pch3;
+    jdouble *javadispFreqPtr = (jdouble*) (*env)->GetPrimitiveArrayCritical(env, dispFreq, 0);
+    jfloat *javaResponsePtr = (jfloat*) (*env)->GetPrimitiveArrayCritical(env, response, 0);
     for (int i = 0; i < queryPts; i++)
         javaResponsePtr[i] = (float)getValueAt(&lerpPtr->cb, javadispFreqPtr[i]);
-
-    (*env)->ReleaseDoubleArrayElements(env, dispFreq, javadispFreqPtr, 0);
-    (*env)->SetFloatArrayRegion(env, response, 0, queryPts, javaResponsePtr);
+    (*env)->ReleasePrimitiveArrayCritical(env, response, javaResponsePtr, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, dispFreq, javadispFreqPtr, JNI_ABORT);
 }
 
-JNIEXPORT void JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_ComputeIIREqualizerCplx(JNIEnv *env, jobject obj, jint srate, jint order, jdoubleArray jfreq, jdoubleArray jgain, jint nPts, jdoubleArray jdispFreq, jdoubleArray jcplxRe, jdoubleArray jcplxIm)
+JNIEXPORT void JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_ComputeIIREqualizerCplx(JNIEnv *env, jobject obj, jlong handle, jint srate, jint order, jdoubleArray jfreq, jdoubleArray jgain, jint nPts, jdoubleArray jdispFreq, jdoubleArray jcplxRe, jdoubleArray jcplxIm)
 {
-    jdouble *freqs = (jdouble*) (*env)->GetDoubleArrayElements(env, jfreq, 0);
-    jdouble *gains = (jdouble*) (*env)->GetDoubleArrayElements(env, jgain, 0);
-    jdouble *dispFreq = (jdouble*) (*env)->GetDoubleArrayElements(env, jdispFreq, 0);
-    jdouble *cplxRe = (jdouble*) (*env)->GetDoubleArrayElements(env, jcplxRe, 0);
-    jdouble *cplxIm = (jdouble*) (*env)->GetDoubleArrayElements(env, jcplxIm, 0);
+    eqResponseContext *ctx = (eqResponseContext*)(intptr_t)handle;
+    if (!ctx || nPts <= 0 || !ensureIirScratch(ctx, nPts))
+        return;
+    double *freqs = ctx->freq;
+    double *gains = ctx->gain;
+    (*env)->GetDoubleArrayRegion(env, jfreq, 0, NUMPTS, freqs);
+    (*env)->GetDoubleArrayRegion(env, jgain, 0, NUMPTS, gains);
+
+    // HSHOResponse is too slow to run while holding critical array pointers; work on copies instead
+    double *dispFreq = ctx->scratchDispFreq;
+    double *cplxRe = ctx->scratchRe;
+    double *cplxIm = ctx->scratchIm;
+    (*env)->GetDoubleArrayRegion(env, jdispFreq, 0, nPts, dispFreq);
 
     for (int i = 0; i < nPts; i++)
     {
@@ -709,20 +988,118 @@ JNIEXPORT void JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpR
 
     (*env)->SetDoubleArrayRegion(env, jcplxRe, 0, nPts, cplxRe);
     (*env)->SetDoubleArrayRegion(env, jcplxIm, 0, nPts, cplxIm);
-    (*env)->ReleaseDoubleArrayElements(env, jfreq, freqs, 0);
-    (*env)->ReleaseDoubleArrayElements(env, jgain, gains, 0);
-    (*env)->ReleaseDoubleArrayElements(env, jdispFreq, dispFreq, 0);
 }
 
 JNIEXPORT void JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_ComputeIIREqualizerResponse(JNIEnv *env, jobject obj, jint nPts, jdoubleArray jcplxRe, jdoubleArray jcplxIm, jfloatArray jresponse)
 {
-    jdouble *cplxRe = (jdouble*) (*env)->GetDoubleArrayElements(env, jcplxRe, 0);
-    jdouble *cplxIm = (jdouble*) (*env)->GetDoubleArrayElements(env, jcplxIm, 0);
-    jfloat *response = (jfloat*) (*env)->GetFloatArrayElements(env, jresponse, 0);
+    jdouble *cplxRe = (jdouble*) (*env)->GetPrimitiveArrayCritical(env, jcplxRe, 0);
+    jdouble *cplxIm = (jdouble*) (*env)->GetPrimitiveArrayCritical(env, jcplxIm, 0);
+    jfloat *response = (jfloat*) (*env)->GetPrimitiveArrayCritical(env, jresponse, 0);
     for(int i = 0; i < nPts; i++) {
         response[i] = 20.0f * log10f(hypot(cplxRe[i], cplxIm[i]));
     }
-    (*env)->SetFloatArrayRegion(env, jresponse, 0, nPts, response);
-    (*env)->ReleaseDoubleArrayElements(env, jcplxRe, cplxRe, 0);
-    (*env)->ReleaseDoubleArrayElements(env, jcplxIm, cplxIm, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, jresponse, response, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, jcplxIm, cplxIm, JNI_ABORT);
+    (*env)->ReleasePrimitiveArrayCritical(env, jcplxRe, cplxRe, JNI_ABORT);
+}
+
+/*
+ * Same result as ComputeIIREqualizerCplx, but keeps the complex response of every shelf section in the context.
+ * Only sections whose inputs changed since the last call are redesigned and evaluated; moving one band touches
+ * at most two adjacent sections. The cached sections are then multiplied together.
+ * Returns the number of redesigned sections, or -1 if the context is invalid or its buffers could not be allocated;
+ * the output arrays are left untouched in that case.
+ */
+JNIEXPORT jint JNICALL Java_me_timschneeberger_rootlessjamesdsp_interop_JdspImpResToolbox_ComputeIIREqualizerCplxIncremental(JNIEnv *env, jobject obj, jlong handle, jint srate, jint order, jdoubleArray jfreq, jdoubleArray jgain, jint nPts, jdoubleArray jdispFreq, jdoubleArray jcplxRe, jdoubleArray jcplxIm)
+{
+    eqResponseContext *ctx = (eqResponseContext*)(intptr_t)handle;
+    if (!ctx || nPts <= 0)
+        return -1;
+    double *freqs = ctx->freq;
+    double *gains = ctx->gain;
+    (*env)->GetDoubleArrayRegion(env, jfreq, 0, NUMPTS, freqs);
+    (*env)->GetDoubleArrayRegion(env, jgain, 0, NUMPTS, gains);
+
+    // Buffers are only reallocated if the number of display points changes
+    if (ctx->iirPts != nPts)
+    {
+        free(ctx->iirDispFreq);
+        free(ctx->iirSectionRe);
+        free(ctx->iirSectionIm);
+        ctx->iirDispFreq = (double*)malloc(nPts * sizeof(double));
+        ctx->iirSectionRe = (double*)malloc((NUMPTS - 1) * nPts * sizeof(double));
+        ctx->iirSectionIm = (double*)malloc((NUMPTS - 1) * nPts * sizeof(double));
+        ctx->iirPts = nPts;
+        ctx->iirValid = 0;
+        if (!ctx->iirDispFreq || !ctx->iirSectionRe || !ctx->iirSectionIm)
+        {
+            ctx->iirPts = 0;
+            return -1;
+        }
+    }
+    if (!ensureIirScratch(ctx, nPts))
+        return -1;
+
+    double *dispFreq = ctx->scratchDispFreq;
+    double *cplxRe = ctx->scratchRe;
+    double *cplxIm = ctx->scratchIm;
+    (*env)->GetDoubleArrayRegion(env, jdispFreq, 0, nPts, dispFreq);
+
+    if (ctx->iirOrder != order || memcmp(ctx->iirDispFreq, dispFreq, nPts * sizeof(double)))
+        ctx->iirValid = 0;
+
+    int redesigned = 0;
+    for (int i = 0; i < NUMPTS - 1; i++)
+    {
+        int dirty = !ctx->iirValid ||
+                ctx->iirFreq[i] != freqs[i] || ctx->iirFreq[i + 1] != freqs[i + 1] ||
+                ctx->iirGain[i] != gains[i] || ctx->iirGain[i + 1] != gains[i + 1];
+        if (!dirty)
+            continue;
+
+        double *re = ctx->iirSectionRe + i * nPts;
+        double *im = ctx->iirSectionIm + i * nPts;
+        for (int j = 0; j < nPts; j++)
+        {
+            re[j] = 1;
+            im[j] = 0;
+        }
+        double dB = gains[i + 1] - gains[i];
+        double designFreq;
+        if (i)
+            designFreq = (freqs[i + 1] + freqs[i]) * 0.5;
+        else
+            designFreq = freqs[i];
+        double overallGain = i == 0 ? gains[i] : 0.0;
+        HSHOResponse(48000.0, designFreq, (unsigned int)order, dB, overallGain, nPts, dispFreq, re, im);
+        redesigned++;
+    }
+
+    // Combine all sections
+    for (int j = 0; j < nPts; j++)
+    {
+        cplxRe[j] = ctx->iirSectionRe[j];
+        cplxIm[j] = ctx->iirSectionIm[j];
+    }
+    for (int i = 1; i < NUMPTS - 1; i++)
+    {
+        double *re = ctx->iirSectionRe + i * nPts;
+        double *im = ctx->iirSectionIm + i * nPts;
+        for (int j = 0; j < nPts; j++)
+        {
+            double r = cplxRe[j] * re[j] - cplxIm[j] * im[j];
+            cplxIm[j] = cplxRe[j] * im[j] + cplxIm[j] * re[j];
+            cplxRe[j] = r;
+        }
+    }
+
+    memcpy(ctx->iirDispFreq, dispFreq, nPts * sizeof(double));
+    memcpy(ctx->iirFreq, freqs, NUMPTS * sizeof(double));
+    memcpy(ctx->iirGain, gains, NUMPTS * sizeof(double));
+    ctx->iirOrder = order;
+    ctx->iirValid = 1;
+
+    (*env)->SetDoubleArrayRegion(env, jcplxRe, 0, nPts, cplxRe);
+    (*env)->SetDoubleArrayRegion(env, jcplxIm, 0, nPts, cplxIm);
+    return redesigned;
 }
@@ -262,7 +262,9 @@ class LiveprogEditorActivity : BaseActivity() {
             toast(getString(R.string.editor_script_launched), false)
         }
 
-        sendLocalBroadcast(Intent(Constants.ACTION_SERVICE_RELOAD_LIVEPROG))
+        // Explicit run; re-run @init even if the script has not been modified
+        sendLocalBroadcast(Intent(Constants.ACTION_SERVICE_RELOAD_LIVEPROG)
+            .putExtra(Constants.EXTRA_LIVEPROG_FORCE_RECOMPILE, true))
     }
 
     private fun configCodeView() {
@@ -41,6 +41,7 @@ import me.timschneeberger.rootlessjamesdsp.preference.FileLibraryPreference
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.showAlert
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.showInputAlert
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.toast
+import me.timschneeberger.rootlessjamesdsp.utils.storage.ConvolverResampleJob
 import me.timschneeberger.rootlessjamesdsp.utils.storage.StorageUtils
 import timber.log.Timber
 import java.io.File
@@ -123,20 +124,14 @@ class FileLibraryDialogFragment : ListPreferenceDialogFragmentCompat(), TargetFr
             popupMenu.menu.findItem(R.id.edit_selection).isVisible = fileLibPreference.isLiveprog()
             popupMenu.menu.findItem(R.id.overwrite_selection).isVisible = fileLibPreference.isPreset()
             popupMenu.menu.findItem(R.id.resample_selection).isVisible = fileLibPreference.isIrs()
+            popupMenu.menu.findItem(R.id.resample_all).isVisible = fileLibPreference.isIrs()
 
             popupMenu.setOnMenuItemClickListener { menuItem ->
                 val selectedFile = File(path.toString())
                 when (menuItem.itemId) {
                     R.id.resample_selection -> {
                         if(fileLibPreference.isIrs()) {
-                            var targetRate = (requireActivity().application as MainApplication).engineSampleRate.roundToInt()
-                            if (targetRate <= 0) {
-                                targetRate = requireContext().getSystemService<AudioManager>()
-                                    ?.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE)
-                                    ?.let { str -> Integer.parseInt(str).takeUnless { it == 0 } } ?: 48000
-                                Timber.w("resample: engine sample rate is zero, using HAL rate instead")
-                            }
-
+                            val targetRate = resampleTargetRate()
                             Timber.d("resample: Resampling ${selectedFile.name} to ${targetRate}Hz")
 
                             CoroutineScope(Dispatchers.IO).launch {
@@ -163,6 +158,14 @@ class FileLibraryDialogFragment : ListPreferenceDialogFragmentCompat(), TargetFr
                         }
                         refresh()
                     }
+                    R.id.resample_all -> {
+                        if(fileLibPreference.isIrs()) {
+                            val targetRate = resampleTargetRate()
+                            Timber.d("resample: Resampling library to ${targetRate}Hz")
+                            ConvolverResampleJob.startNow(requireContext(), intArrayOf(targetRate))
+                            requireContext().toast(getString(R.string.filelibrary_resample_all_started, targetRate))
+                        }
+                    }
                     R.id.overwrite_selection -> {
                         if(fileLibPreference.isPreset()) {
                             if(Preset(selectedFile.name).save())
@@ -326,6 +329,17 @@ class FileLibraryDialogFragment : ListPreferenceDialogFragmentCompat(), TargetFr
         }
     }
 
+    private fun resampleTargetRate(): Int {
+        var targetRate = (requireActivity().application as MainApplication).engineSampleRate.roundToInt()
+        if (targetRate <= 0) {
+            targetRate = requireContext().getSystemService<AudioManager>()
+                ?.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE)
+                ?.let { str -> Integer.parseInt(str).takeUnless { it == 0 } } ?: 48000
+            Timber.w("resample: engine sample rate is zero, using HAL rate instead")
+        }
+        return targetRate
+    }
+
     private fun refresh() {
         fileLibPreference.refresh()
         dialog.listView.adapter = createAdapter()
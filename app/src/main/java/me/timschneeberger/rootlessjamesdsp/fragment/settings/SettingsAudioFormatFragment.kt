@@ -1,19 +1,27 @@
 package me.timschneeberger.rootlessjamesdsp.fragment.settings
 
+import android.content.Context
 import android.content.Intent
+import android.content.pm.ApplicationInfo
 import android.os.Bundle
+import androidx.lifecycle.lifecycleScope
 import androidx.preference.ListPreference
 import androidx.preference.Preference
+import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import me.timschneeberger.rootlessjamesdsp.R
 import me.timschneeberger.rootlessjamesdsp.activity.OnboardingActivity
 import me.timschneeberger.rootlessjamesdsp.interop.BenchmarkManager
+import me.timschneeberger.rootlessjamesdsp.interop.PreferenceCache
+import me.timschneeberger.rootlessjamesdsp.model.preset.Preset
 import me.timschneeberger.rootlessjamesdsp.preference.MaterialSeekbarPreference
 import me.timschneeberger.rootlessjamesdsp.preference.MaterialSwitchPreference
 import me.timschneeberger.rootlessjamesdsp.service.RootAudioProcessorService
 import me.timschneeberger.rootlessjamesdsp.utils.Constants
+import me.timschneeberger.rootlessjamesdsp.utils.extensions.CompatExtensions.getInstalledApplicationsCompat
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.requestIgnoreBatteryOptimizations
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.sendLocalBroadcast
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.showAlert
@@ -24,16 +32,22 @@ import me.timschneeberger.rootlessjamesdsp.utils.isRootless
 import me.timschneeberger.rootlessjamesdsp.utils.preferences.Preferences
 import org.koin.android.ext.android.inject
 import timber.log.Timber
+import java.io.File
 
 class SettingsAudioFormatFragment : SettingsBaseFragment() {
 
     private val encoding by lazy { findPreference<ListPreference>(getString(R.string.key_audioformat_encoding)) }
     private val bufferSize by lazy { findPreference<MaterialSeekbarPreference>(getString(R.string.key_audioformat_buffersize)) }
+    private val adaptiveBufferSize by lazy { findPreference<MaterialSwitchPreference>(getString(R.string.key_audioformat_buffersize_adaptive)) }
+    private val pipelined by lazy { findPreference<MaterialSwitchPreference>(getString(R.string.key_audioformat_pipelined)) }
     private val legacyMode by lazy { findPreference<MaterialSwitchPreference>(getString(R.string.key_audioformat_processing)) }
     private val enhancedMode by lazy { findPreference<MaterialSwitchPreference>(getString(R.string.key_audioformat_enhanced_processing)) }
     private val enhancedModeInfo by lazy { findPreference<Preference>(getString(R.string.key_audioformat_enhanced_processing_info)) }
     private val benchmark by lazy { findPreference<MaterialSwitchPreference>(getString(R.string.key_audioformat_optimization_benchmark)) }
     private val benchmarkRefresh by lazy { findPreference<Preference>(getString(R.string.key_audioformat_optimization_refresh)) }
+    private val streamGroupEnable by lazy { findPreference<MaterialSwitchPreference>(getString(R.string.key_stream_group_enable)) }
+    private val streamGroupApps by lazy { findPreference<Preference>(getString(R.string.key_stream_group_apps)) }
+    private val streamGroupPreset by lazy { findPreference<ListPreference>(getString(R.string.key_stream_group_preset)) }
 
     private val preferences: Preferences.App by inject()
 
@@ -43,6 +57,7 @@ class SettingsAudioFormatFragment : SettingsBaseFragment() {
 
         // Root: Hide audio format & benchmark category
         encoding?.parent?.isVisible = isRootless()
+        streamGroupEnable?.parent?.isVisible = isRootless()
         benchmark?.parent?.isVisible = !isRoot()
 
         // Rootless: Hide audio processing category
@@ -118,6 +133,108 @@ class SettingsAudioFormatFragment : SettingsBaseFragment() {
             context?.sendLocalBroadcast(Intent(Constants.ACTION_SERVICE_HARD_REBOOT_CORE))
             true
         }
+        adaptiveBufferSize?.setOnPreferenceChangeListener { _, _ ->
+            context?.sendLocalBroadcast(Intent(Constants.ACTION_SERVICE_HARD_REBOOT_CORE))
+            true
+        }
+        pipelined?.setOnPreferenceChangeListener { _, _ ->
+            context?.sendLocalBroadcast(Intent(Constants.ACTION_SERVICE_HARD_REBOOT_CORE))
+            true
+        }
+
+        streamGroupEnable?.setOnPreferenceChangeListener { _, _ ->
+            context?.sendLocalBroadcast(Intent(Constants.ACTION_SERVICE_HARD_REBOOT_CORE))
+            true
+        }
+        updateStreamGroupAppsSummary()
+        streamGroupApps?.setOnPreferenceClickListener {
+            showStreamGroupAppsDialog()
+            true
+        }
+
+        val presets = File(requireContext().getExternalFilesDir(null), "Presets")
+            .list { _, name -> name.endsWith(".tar") }
+            ?.sorted()
+            .orEmpty()
+        streamGroupPreset?.entries = arrayOf(getString(R.string.audio_format_stream_group_preset_none)) +
+                presets.map { it.removeSuffix(".tar") }
+        streamGroupPreset?.entryValues = arrayOf("") + presets
+        streamGroupPreset?.setOnPreferenceChangeListener { _, newValue ->
+            val ctx = requireContext()
+            try {
+                if((newValue as String).isEmpty())
+                    clearStreamGroupPreset(ctx)
+                else
+                    Preset(newValue).load(Constants.PREF_STREAM_GROUP_PREFIX)
+                true
+            }
+            catch (ex: Exception) {
+                Timber.e(ex)
+                ctx.toast(R.string.audio_format_stream_group_preset_failed)
+                false
+            }
+        }
+    }
+
+    private fun selectedStreamGroupApps() = preferences.get<String>(R.string.key_stream_group_apps)
+        .split(";")
+        .filter { it.isNotBlank() }
+
+    private fun updateStreamGroupAppsSummary() {
+        val packageManager = requireContext().packageManager
+        val names = selectedStreamGroupApps().map { packageName ->
+            try {
+                packageManager.getApplicationInfo(packageName, 0).loadLabel(packageManager).toString()
+            }
+            catch (ex: Exception) {
+                packageName
+            }
+        }
+        streamGroupApps?.summary = if(names.isEmpty())
+            getString(R.string.audio_format_stream_group_apps_none)
+        else
+            names.joinToString(", ")
+    }
+
+    private fun showStreamGroupAppsDialog() {
+        lifecycleScope.launch {
+            val packageManager = requireContext().packageManager
+            val apps = withContext(Dispatchers.IO) {
+                packageManager.getInstalledApplicationsCompat(0)
+                    .filterNot { (it.flags and ApplicationInfo.FLAG_INSTALLED) == 0 }
+                    .map { it.loadLabel(packageManager).toString() to it.packageName }
+                    .sortedBy { it.first.lowercase() }
+            }
+
+            val selection = selectedStreamGroupApps().toMutableSet()
+            val checked = apps.map { it.second in selection }.toBooleanArray()
+
+            MaterialAlertDialogBuilder(requireContext())
+                .setTitle(R.string.audio_format_stream_group_apps)
+                .setMultiChoiceItems(apps.map { it.first }.toTypedArray(), checked) { _, which, isChecked ->
+                    if(isChecked)
+                        selection += apps[which].second
+                    else
+                        selection -= apps[which].second
+                }
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(android.R.string.ok) { _, _ ->
+                    preferences.set(R.string.key_stream_group_apps, selection.joinToString(";"))
+                    updateStreamGroupAppsSummary()
+                    context?.sendLocalBroadcast(Intent(Constants.ACTION_SERVICE_HARD_REBOOT_CORE))
+                }
+                .show()
+        }
+    }
+
+    // Resets the stream group namespaces; the engine treats missing values as disabled effects
+    private fun clearStreamGroupPreset(ctx: Context) {
+        File(ctx.applicationInfo.dataDir, "shared_prefs")
+            .listFiles { _, name -> name.startsWith(Constants.PREF_STREAM_GROUP_PREFIX + "dsp_") && name.endsWith(".xml") }
+            ?.forEach {
+                PreferenceCache.getPreferences(ctx, it.nameWithoutExtension).edit().clear().commit()
+            }
+        ctx.sendLocalBroadcast(Intent(Constants.ACTION_PREFERENCES_UPDATED))
     }
 
     companion object {
@@ -13,6 +13,7 @@ import me.timschneeberger.rootlessjamesdsp.BuildConfig
 import me.timschneeberger.rootlessjamesdsp.R
 import me.timschneeberger.rootlessjamesdsp.preference.MaterialSwitchPreference
 import me.timschneeberger.rootlessjamesdsp.service.NotificationListenerService
+import me.timschneeberger.rootlessjamesdsp.service.ProcessorTelemetry
 import me.timschneeberger.rootlessjamesdsp.session.dump.DumpManager
 import me.timschneeberger.rootlessjamesdsp.utils.Constants
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.showAlert
@@ -73,6 +74,11 @@ class SettingsTroubleshootingFragment : SettingsBaseFragment() {
             startActivity(Intent.createChooser(shareIntent, getString(R.string.troubleshooting_dump_share_title)))
             true
         }
+        findPreference<Preference>(getString(R.string.key_troubleshooting_telemetry))?.setOnPreferenceClickListener {
+            requireContext().showAlert(getString(R.string.troubleshooting_telemetry), ProcessorTelemetry.dumpString())
+            updateTelemetrySummary()
+            true
+        }
         findPreference<Preference>(getString(R.string.key_troubleshooting_notification_access))?.setOnPreferenceClickListener {
             val serviceClassName = NotificationListenerService::class.java.name
             val intent = sdkAbove(Build.VERSION_CODES.R) {
@@ -112,6 +118,19 @@ class SettingsTroubleshootingFragment : SettingsBaseFragment() {
         }
     }
 
+    override fun onResume() {
+        super.onResume()
+        updateTelemetrySummary()
+    }
+
+    private fun updateTelemetrySummary() {
+        findPreference<Preference>(getString(R.string.key_troubleshooting_telemetry))?.summary =
+            if(ProcessorTelemetry.blockCount > 0)
+                ProcessorTelemetry.summary()
+            else
+                getString(R.string.troubleshooting_telemetry_summary_empty)
+    }
+
     companion object {
         fun newInstance(): SettingsTroubleshootingFragment {
             return SettingsTroubleshootingFragment()
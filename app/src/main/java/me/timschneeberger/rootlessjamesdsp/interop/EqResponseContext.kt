@@ -0,0 +1,46 @@
+package me.timschneeberger.rootlessjamesdsp.interop
+
+import timber.log.Timber
+
+/**
+ * Owns the native interpolator state and scratch buffers used by the [JdspImpResToolbox] response functions.
+ * A context must not be used by multiple threads at once; use one context per thread or preview instead.
+ */
+class EqResponseContext : AutoCloseable {
+    private var handle = JdspImpResToolbox.CreateEqResponseContext()
+
+    val isClosed: Boolean
+        get() = handle == 0L
+
+    fun computeEqResponse(freq: DoubleArray, gain: DoubleArray, interpolationMode: Int, queryPts: Int, dispFreq: DoubleArray, response: FloatArray) =
+        JdspImpResToolbox.ComputeEqResponse(checkedHandle(), freq.size, freq, gain, interpolationMode, queryPts, dispFreq, response)
+
+    fun computeCompResponse(freq: DoubleArray, gain: DoubleArray, queryPts: Int, dispFreq: DoubleArray, response: FloatArray) =
+        JdspImpResToolbox.ComputeCompResponse(checkedHandle(), freq, gain, queryPts, dispFreq, response)
+
+    fun computeIIREqualizerCplx(srate: Int, order: Int, freq: DoubleArray, gain: DoubleArray, nPts: Int, dispFreq: DoubleArray, cplxRe: DoubleArray, cplxIm: DoubleArray) =
+        JdspImpResToolbox.ComputeIIREqualizerCplx(checkedHandle(), srate, order, freq, gain, nPts, dispFreq, cplxRe, cplxIm)
+
+    fun computeIIREqualizerCplxIncremental(srate: Int, order: Int, freq: DoubleArray, gain: DoubleArray, nPts: Int, dispFreq: DoubleArray, cplxRe: DoubleArray, cplxIm: DoubleArray): Int {
+        val redesigned = JdspImpResToolbox.ComputeIIREqualizerCplxIncremental(checkedHandle(), srate, order, freq, gain, nPts, dispFreq, cplxRe, cplxIm)
+        if(redesigned >= 0)
+            return redesigned
+
+        // The section cache could not be allocated and the outputs still hold the previous curve
+        Timber.w("Incremental IIR response failed ($redesigned); recomputing all sections")
+        computeIIREqualizerCplx(srate, order, freq, gain, nPts, dispFreq, cplxRe, cplxIm)
+        return freq.size - 1
+    }
+
+    override fun close() {
+        if(handle != 0L) {
+            JdspImpResToolbox.DestroyEqResponseContext(handle)
+            handle = 0L
+        }
+    }
+
+    private fun checkedHandle(): Long {
+        check(handle != 0L) { "EqResponseContext is closed" }
+        return handle
+    }
+}
@@ -2,24 +2,37 @@ package me.timschneeberger.rootlessjamesdsp.interop
 
 import android.content.Context
 import android.content.Intent
+import android.os.SystemClock
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
 import me.timschneeberger.rootlessjamesdsp.R
 import me.timschneeberger.rootlessjamesdsp.interop.structure.EelVmVariable
 import me.timschneeberger.rootlessjamesdsp.model.ProcessorMessage
 import me.timschneeberger.rootlessjamesdsp.preference.FileLibraryPreference
 import me.timschneeberger.rootlessjamesdsp.utils.Constants
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.sendLocalBroadcast
+import me.timschneeberger.rootlessjamesdsp.utils.storage.ConvolverResampleJob
+import me.timschneeberger.rootlessjamesdsp.utils.storage.ImpulseResponseCache
 import timber.log.Timber
 import java.io.File
 import java.io.FileNotFoundException
 import java.io.FileReader
 
-abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspWrapper.JamesDspCallbacks? = null) : AutoCloseable {
+/**
+ * @param namespacePrefix Reads the DSP preferences from prefixed namespaces instead of the main ones.
+ *                        Such secondary engines don't report their state to the rest of the app.
+ */
+abstract class JamesDspBaseEngine(
+    val context: Context,
+    val callbacks: JamesDspWrapper.JamesDspCallbacks? = null,
+    val namespacePrefix: String = ""
+) : AutoCloseable {
     abstract var enabled: Boolean
     open var sampleRate: Float = 0.0f
         set(value) {
@@ -29,7 +42,22 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
 
     private val syncScope = CoroutineScope(Dispatchers.IO)
     private val syncMutex = Mutex()
-    protected val cache = PreferenceCache(context)
+    protected val cache = PreferenceCache(context, namespacePrefix)
+    protected val isSecondary: Boolean
+        get() = namespacePrefix.isNotEmpty()
+
+    /** Minimum time between two preference syncs in milliseconds */
+    var syncInterval = DEFAULT_SYNC_INTERVAL
+    private val syncRequests = Channel<Unit>(Channel.CONFLATED)
+    private val pendingForcedNamespaces = mutableSetOf<String>()
+    @Volatile private var flushRequested = false
+    private var lastSyncTime = 0L
+
+    init {
+        syncScope.launch {
+            processSyncRequests()
+        }
+    }
 
     override fun close() {
         Timber.d("Closing engine")
@@ -37,9 +65,42 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
         syncScope.cancel()
     }
 
-    open fun syncWithPreferences(forceUpdateNamespaces: Array<String>? = null) {
-        syncScope.launch {
-            syncWithPreferencesAsync(forceUpdateNamespaces)
+    /**
+     * Requests a sync with the preferences. Requests are conflated: while a sync is pending or running,
+     * further requests are merged into the next one, which always reflects the latest state.
+     * Syncs are spaced at least [syncInterval] ms apart unless [immediate] is set.
+     */
+    open fun syncWithPreferences(forceUpdateNamespaces: Array<String>? = null, immediate: Boolean = false) {
+        forceUpdateNamespaces?.let {
+            synchronized(pendingForcedNamespaces) {
+                pendingForcedNamespaces.addAll(it)
+            }
+        }
+        if(immediate)
+            flushRequested = true
+        syncRequests.trySend(Unit)
+    }
+
+    private suspend fun processSyncRequests() {
+        while(true) {
+            syncRequests.receive()
+
+            // Wait out the rate limit unless a flush is requested in the meantime
+            val wait = lastSyncTime + syncInterval - SystemClock.elapsedRealtime()
+            if(!flushRequested && wait > 0) {
+                withTimeoutOrNull(wait) {
+                    while(!flushRequested)
+                        syncRequests.receive()
+                }
+            }
+            flushRequested = false
+
+            val forced = synchronized(pendingForcedNamespaces) {
+                pendingForcedNamespaces.toTypedArray().also { pendingForcedNamespaces.clear() }
+            }
+
+            lastSyncTime = SystemClock.elapsedRealtime()
+            syncWithPreferencesAsync(forced.ifEmpty { null })
         }
     }
 
@@ -48,6 +109,8 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
     }
 
     private fun reportSampleRate(value: Float) {
+        if(isSecondary)
+            return
         context.sendLocalBroadcast(Intent(Constants.ACTION_REPORT_SAMPLE_RATE).apply {
             putExtra(Constants.EXTRA_SAMPLE_RATE, value)
         })
@@ -157,7 +220,9 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
             doubleArray[i] = number
         }
 
-        return setMultiEqualizerInternal(enable, filterType, interpolationMode, doubleArray)
+        // Skip the stage entirely if all band gains are flat
+        val isNeutral = NeutralStages.areGainsNeutral(doubleArray, 15, 30)
+        return setMultiEqualizerInternal(enable && !isNeutral, filterType, interpolationMode, doubleArray)
     }
 
     fun setCompander(enable: Boolean, timeConstant: Float, granularity: Int, tfTransforms: Int, bands: String): Boolean
@@ -174,7 +239,8 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
             doubleArray[i] = number
         }
 
-        return setCompanderInternal(enable, timeConstant, granularity, tfTransforms, doubleArray)
+        val isNeutral = NeutralStages.areGainsNeutral(doubleArray, 7, 14)
+        return setCompanderInternal(enable && !isNeutral, timeConstant, granularity, tfTransforms, doubleArray)
     }
 
     fun setVdc(enable: Boolean, vdcPath: String): Boolean
@@ -223,14 +289,21 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
             callbacks?.onConvolverParseError(ProcessorMessage.ConvolverErrorCode.AdvParamsInvalid)
         }
 
+        // A copy that is already at the processing rate avoids resampling the IR on every load
+        val source = ConvolverResampleJob.preferResampled(File(path), sampleRate.toInt())
+        if(source.path != path)
+            Timber.d("setConvolver: Using resampled copy ${source.name}")
+
         val info = IntArray(4)
-        val imp = JdspImpResToolbox.ReadImpulseResponseToFloat(
-            path,
-            sampleRate.toInt(),
-            info,
-            optimizationMode,
-            advSetting
-        )
+        val imp = ImpulseResponseCache.getOrLoad(context, source, sampleRate.toInt(), optimizationMode, advSetting, info) {
+            JdspImpResToolbox.ReadImpulseResponseToFloat(
+                source.path,
+                sampleRate.toInt(),
+                info,
+                optimizationMode,
+                advSetting
+            )
+        }
 
         if(imp == null) {
             Timber.e("setConvolver: Failed to read IR")
@@ -265,7 +338,7 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
             return false
         }
 
-        return setGraphicEqInternal(enable, bands)
+        return setGraphicEqInternal(enable && !NeutralStages.isGraphicEqNeutral(bands), bands)
     }
 
     fun setLiveprog(enable: Boolean, path: String): Boolean
@@ -316,6 +389,8 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
     abstract fun enumerateEelVariables(): ArrayList<EelVmVariable>
     abstract fun manipulateEelVariable(name: String, value: Float): Boolean
     abstract fun freezeLiveprogExecution(freeze: Boolean)
+    /** Drops the compiled Liveprog program, so that the next reload recompiles it even if the script is unchanged */
+    open fun invalidateLiveprogCache() {}
 
     protected inner class DummyCallbacks : JamesDspWrapper.JamesDspCallbacks
     {
@@ -325,4 +400,8 @@ abstract class JamesDspBaseEngine(val context: Context, val callbacks: JamesDspW
         override fun onVdcParseError() {}
         override fun onConvolverParseError(errorCode: ProcessorMessage.ConvolverErrorCode) {}
     }
-}
\ No newline at end of file
+
+    companion object {
+        const val DEFAULT_SYNC_INTERVAL = 50L
+    }
+}
@@ -6,20 +6,41 @@ import me.timschneeberger.rootlessjamesdsp.interop.structure.EelVmVariable
 import me.timschneeberger.rootlessjamesdsp.utils.Constants
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.sendLocalBroadcast
 import timber.log.Timber
+import java.nio.ByteBuffer
 import java.util.Timer
 import kotlin.concurrent.schedule
 
-class JamesDspLocalEngine(context: Context, callbacks: JamesDspWrapper.JamesDspCallbacks? = null) : JamesDspBaseEngine(context, callbacks) {
+class JamesDspLocalEngine(
+    context: Context,
+    callbacks: JamesDspWrapper.JamesDspCallbacks? = null,
+    namespacePrefix: String = ""
+) : JamesDspBaseEngine(context, callbacks, namespacePrefix) {
     var handle: JamesDspHandle = JamesDspWrapper.alloc(callbacks ?: DummyCallbacks())
 
     override var sampleRate: Float
         set(value) {
             super.sampleRate = value
             JamesDspWrapper.setSamplingRate(handle, value, false)
-            context.sendLocalBroadcast(Intent(Constants.ACTION_SAMPLE_RATE_UPDATED))
+            if(!isSecondary)
+                context.sendLocalBroadcast(Intent(Constants.ACTION_SAMPLE_RATE_UPDATED))
         }
         get() = super.sampleRate
     override var enabled: Boolean = true
+    /**
+     * Runs the effect chain on a native worker thread, one block behind the caller (adds one block of latency).
+     * Only applies to processInt16Direct/processFloatDirect.
+     */
+    var pipelinedProcessing: Boolean = false
+        set(value) {
+            field = value
+            JamesDspWrapper.setPipelinedProcessing(handle, value)
+        }
+    /** Skips the effect chain while the input is silent and all effect tails have decayed */
+    var silenceBypass: Boolean = false
+        set(value) {
+            field = value
+            JamesDspWrapper.setSilenceBypass(handle, value)
+        }
 
     init {
         if(BenchmarkManager.hasBenchmarksCached())
@@ -86,6 +107,44 @@ class JamesDspLocalEngine(context: Context, callbacks: JamesDspWrapper.JamesDspC
         }
     }
 
+    /** Returns the number of frames written to [output] */
+    fun processInt16Direct(input: ByteBuffer, output: ByteBuffer, frames: Int): Int
+    {
+        if(!enabled || handle == 0L) {
+            bypassDirect(input, output, frames * 2 * Short.SIZE_BYTES)
+            return frames
+        }
+        return JamesDspWrapper.processInt16Direct(handle, input, output, frames)
+    }
+
+    /** Returns the number of frames written to [output] */
+    fun processFloatDirect(input: ByteBuffer, output: ByteBuffer, frames: Int): Int
+    {
+        if(!enabled || handle == 0L) {
+            bypassDirect(input, output, frames * 2 * Float.SIZE_BYTES)
+            return frames
+        }
+        return JamesDspWrapper.processFloatDirect(handle, input, output, frames)
+    }
+
+    /** Time the native worker spent on the last block in nanoseconds, or null if processing is not pipelined */
+    val pipelineProcessingTimeNs: Long?
+        get() = if(handle == 0L) null else JamesDspWrapper.getPipelineProcessingTime(handle).takeIf { it >= 0 }
+
+    private fun bypassDirect(input: ByteBuffer, output: ByteBuffer, sizeBytes: Int)
+    {
+        // In-place processing; nothing to copy
+        if(input === output)
+            return
+
+        output.clear()
+        output.put(input.duplicate().apply {
+            clear()
+            limit(sizeBytes)
+        })
+        output.clear()
+    }
+
     // Effect config
     override fun setOutputControl(threshold: Float, release: Float, postGain: Float): Boolean {
         return JamesDspWrapper.setLimiter(handle, threshold, release) and JamesDspWrapper.setPostGain(handle, postGain)
@@ -181,4 +240,9 @@ class JamesDspLocalEngine(context: Context, callbacks: JamesDspWrapper.JamesDspC
     {
         JamesDspWrapper.freezeLiveprogExecution(handle, freeze)
     }
+
+    override fun invalidateLiveprogCache()
+    {
+        JamesDspWrapper.invalidateLiveprogCache(handle)
+    }
 }
\ No newline at end of file
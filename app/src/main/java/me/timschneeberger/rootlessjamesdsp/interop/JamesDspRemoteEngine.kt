@@ -34,11 +34,11 @@ class JamesDspRemoteEngine(
     private val broadcastReceiver = object : BroadcastReceiver() {
         override fun onReceive(context: Context, intent: Intent) {
             when (intent.action) {
-                Constants.ACTION_SAMPLE_RATE_UPDATED -> syncWithPreferences(arrayOf(Constants.PREF_CONVOLVER))
+                Constants.ACTION_SAMPLE_RATE_UPDATED -> syncWithPreferences(arrayOf(Constants.PREF_CONVOLVER), immediate = true)
                 Constants.ACTION_PREFERENCES_UPDATED -> syncWithPreferences()
-                Constants.ACTION_SERVICE_RELOAD_LIVEPROG -> syncWithPreferences(arrayOf(Constants.PREF_LIVEPROG))
+                Constants.ACTION_SERVICE_RELOAD_LIVEPROG -> syncWithPreferences(arrayOf(Constants.PREF_LIVEPROG), immediate = true)
                 Constants.ACTION_SERVICE_HARD_REBOOT_CORE -> rebootEngine()
-                Constants.ACTION_SERVICE_SOFT_REBOOT_CORE -> { clearCache(); syncWithPreferences() }
+                Constants.ACTION_SERVICE_SOFT_REBOOT_CORE -> { clearCache(); syncWithPreferences(immediate = true) }
             }
         }
     }
@@ -57,7 +57,9 @@ class JamesDspRemoteEngine(
         set(_){}
 
     init {
-        syncWithPreferences()
+        // Each sync is a series of binder round-trips; apply slider drags at a lower rate
+        syncInterval = REMOTE_SYNC_INTERVAL
+        syncWithPreferences(immediate = true)
 
         val filter = IntentFilter()
         filter.addAction(Constants.ACTION_PREFERENCES_UPDATED)
@@ -105,14 +107,14 @@ class JamesDspRemoteEngine(
         }
     }
 
-    override fun syncWithPreferences(forceUpdateNamespaces: Array<String>?) {
+    override fun syncWithPreferences(forceUpdateNamespaces: Array<String>?, immediate: Boolean) {
         if(effect == null) {
             Timber.d("Rejecting update due to disposed engine")
             return
         }
 
         checkEngine()
-        super.syncWithPreferences(forceUpdateNamespaces)
+        super.syncWithPreferences(forceUpdateNamespaces, immediate)
     }
 
     override fun close() {
@@ -225,8 +227,10 @@ class JamesDspRemoteEngine(
 
         Timber.i("Convolver hash before: $prevCrc, current: $irCrc")
         if (prevCrc != irCrc && enable) {
-            effect.setParameterImpulseResponseBuffer(12000, 10004, impulseResponse, irChannels)
-            effect.setParameter(25003, irCrc) // Commit hash
+            val result = effect.setParameterImpulseResponseBuffer(12000, 10004, impulseResponse, irChannels)
+            // Only commit the hash if no partition was reported as rejected; retry on next sync otherwise
+            if (result == AudioEffect.SUCCESS)
+                effect.setParameter(25003, irCrc) // Commit hash
         }
 
         return effect.setParameter(1205, enable.toShort()) == AudioEffect.SUCCESS
@@ -298,6 +302,7 @@ class JamesDspRemoteEngine(
     }
 
     companion object {
+        private const val REMOTE_SYNC_INTERVAL = 150L
         private val EFFECT_TYPE_CUSTOM = UUID.fromString("f98765f4-c321-5de6-9a45-123459495ab2")
         private val EFFECT_JAMESDSP = UUID.fromString("f27317f4-c984-4de6-9a90-545759495bf2")
 
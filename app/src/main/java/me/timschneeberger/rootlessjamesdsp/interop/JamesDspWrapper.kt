@@ -2,6 +2,7 @@ package me.timschneeberger.rootlessjamesdsp.interop
 
 import me.timschneeberger.rootlessjamesdsp.interop.structure.EelVmVariable
 import me.timschneeberger.rootlessjamesdsp.model.ProcessorMessage
+import java.nio.ByteBuffer
 
 typealias JamesDspHandle = Long
 
@@ -23,6 +24,15 @@ object JamesDspWrapper {
     external fun processInt32(self: JamesDspHandle, input: IntArray, output: IntArray, offset: Int = -1, length: Int = -1)
     external fun processFloat(self: JamesDspHandle, input: FloatArray, output: FloatArray, offset: Int = -1, length: Int = -1)
 
+    // Processing (interleaved, direct buffers in native byte order; input and output may be the same buffer)
+    // Returns the number of frames written to output; differs from frames in pipelined mode after a block size change
+    external fun processInt16Direct(self: JamesDspHandle, input: ByteBuffer, output: ByteBuffer, frames: Int): Int
+    external fun processFloatDirect(self: JamesDspHandle, input: ByteBuffer, output: ByteBuffer, frames: Int): Int
+    external fun setPipelinedProcessing(self: JamesDspHandle, enable: Boolean)
+    // Worker time of the last pipelined block in nanoseconds, or -1 if pipelined processing is off
+    external fun getPipelineProcessingTime(self: JamesDspHandle): Long
+    external fun setSilenceBypass(self: JamesDspHandle, enable: Boolean)
+
     // Engine config
     external fun setSamplingRate(self: JamesDspHandle, sampleRate: Float, forceRefresh: Boolean)
 
@@ -45,6 +55,7 @@ object JamesDspWrapper {
     external fun enumerateEelVariables(self: JamesDspHandle): ArrayList<EelVmVariable>
     external fun manipulateEelVariable(self: JamesDspHandle, name: String, value: Float): Boolean
     external fun freezeLiveprogExecution(self: JamesDspHandle, freeze: Boolean)
+    external fun invalidateLiveprogCache(self: JamesDspHandle)
     external fun eelErrorCodeToString(errorCode: Int): String
 
     // Callbacks
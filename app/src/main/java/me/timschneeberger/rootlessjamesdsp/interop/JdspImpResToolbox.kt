@@ -15,7 +15,13 @@ object JdspImpResToolbox {
         targetSampleRate: Int
     ): String
 
+    /** Allocates the native state for the response functions below; see [EqResponseContext] */
+    external fun CreateEqResponseContext(): Long
+
+    external fun DestroyEqResponseContext(context: Long)
+
     external fun ComputeEqResponse(
+        context: Long,
         n: Int,
         freq: DoubleArray,
         gain: DoubleArray,
@@ -26,6 +32,7 @@ object JdspImpResToolbox {
     ): Int
 
     external fun ComputeCompResponse(
+        context: Long,
         freq: DoubleArray,
         gain: DoubleArray,
         queryPts: Int,
@@ -34,6 +41,7 @@ object JdspImpResToolbox {
     )
 
     external fun ComputeIIREqualizerCplx(
+        context: Long,
         srate: Int,
         order: Int,
         freq: DoubleArray,
@@ -44,6 +52,23 @@ object JdspImpResToolbox {
         cplxIm: DoubleArray
     )
 
+    /**
+     * Stateful variant of [ComputeIIREqualizerCplx]: keeps per-section responses in the context and only
+     * redesigns the sections affected by changed bands. Returns the number of redesigned sections,
+     * or a negative value if the native buffers could not be allocated; the outputs are not updated then.
+     */
+    external fun ComputeIIREqualizerCplxIncremental(
+        context: Long,
+        srate: Int,
+        order: Int,
+        freq: DoubleArray,
+        gain: DoubleArray,
+        nPts: Int,
+        dispFreq: DoubleArray,
+        cplxRe: DoubleArray,
+        cplxIm: DoubleArray
+    ): Int
+
     external fun ComputeIIREqualizerResponse(
         nPts: Int,
         cplxRe: DoubleArray,
@@ -0,0 +1,24 @@
+package me.timschneeberger.rootlessjamesdsp.interop
+
+import kotlin.math.abs
+
+/**
+ * Decides whether an effect stage is configured flat and can be skipped.
+ * When in doubt (e.g. unparsable values) a stage is never treated as neutral.
+ */
+internal object NeutralStages {
+    // Band gains (dB) below this are treated as flat
+    const val GAIN_EPSILON = 1e-3
+
+    fun areGainsNeutral(gains: DoubleArray, from: Int, until: Int): Boolean {
+        return (from until until).all { abs(gains[it]) < GAIN_EPSILON }
+    }
+
+    // Format: "GraphicEQ: <freq> <gain>; <freq> <gain>; ..."
+    fun isGraphicEqNeutral(bands: String): Boolean {
+        return bands.substringAfter(":").split(";").all { band ->
+            val gain = band.trim().split("\\s+".toRegex()).lastOrNull()?.toDoubleOrNull() ?: return@all band.isBlank()
+            abs(gain) < GAIN_EPSILON
+        }
+    }
+}
@@ -4,20 +4,69 @@ import android.content.Context
 import android.content.SharedPreferences
 import androidx.annotation.StringRes
 import me.timschneeberger.rootlessjamesdsp.flavor.CrashlyticsImpl
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.reflect.KClass
 
-class PreferenceCache(val context: Context) {
+class PreferenceCache internal constructor(
+    private val resolveKey: (Int) -> String,
+    private val openPreferences: (String) -> SharedPreferences,
+    private val backingFile: (String) -> File,
+    private val onValueChanged: (String, String) -> Unit,
+) {
+    /**
+     * Reads the DSP namespaces of [context]. With a [namespacePrefix], every namespace is read from its prefixed copy
+     * instead (see [me.timschneeberger.rootlessjamesdsp.utils.Constants.PREF_STREAM_GROUP_PREFIX]); [changedNamespaces] still reports the unprefixed names.
+     */
+    constructor(context: Context, namespacePrefix: String = "") : this(
+        resolveKey = { context.getString(it) },
+        openPreferences = { getPreferences(context, namespacePrefix + it) },
+        backingFile = { File(context.applicationInfo.dataDir, "shared_prefs/$namespacePrefix$it.xml") },
+        onValueChanged = { name, value -> CrashlyticsImpl.setCustomKey("dsp_$namespacePrefix$name", value) }
+    )
+
     val changedNamespaces = ArrayList<String>()
     val cache: HashMap<String, Any> = hashMapOf()
     var selectedNamespace: String? = null
 
+    // Resolved key names, indexed by string resource id
+    private val keyNames = hashMapOf<Int, String>()
+    // Namespaces edited since they were last read; filled by the change listener from any thread
+    private val dirtyNamespaces: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    // Namespaces that have been read at least once
+    private val knownNamespaces = hashSetOf<String>()
+    // Backing file state per namespace to detect files replaced on disk (preset loading, resets)
+    private val fileStates = hashMapOf<String, Pair<Long, Long>>()
+    // Keep strong references; SharedPreferences only holds listeners weakly
+    private val listeners = hashMapOf<String, SharedPreferences.OnSharedPreferenceChangeListener>()
+    private var selectedPreferences: SharedPreferences? = null
+    private var selectedIsDirty = true
+
     fun select(namespace: String) {
         selectedNamespace = namespace
+
+        listeners.getOrPut(namespace) {
+            SharedPreferences.OnSharedPreferenceChangeListener { _, _ ->
+                dirtyNamespaces.add(namespace)
+            }.also {
+                openPreferences(namespace).registerOnSharedPreferenceChangeListener(it)
+            }
+        }
+
+        val file = backingFile(namespace)
+        val fileState = file.lastModified() to file.length()
+        val replacedOnDisk = fileStates.put(namespace, fileState) != fileState
+
+        // Clear the flag before reading so edits made during the read are picked up by the next sync
+        selectedIsDirty = dirtyNamespaces.remove(namespace) or replacedOnDisk or knownNamespaces.add(namespace)
+        selectedPreferences = if(selectedIsDirty) openPreferences(namespace) else null
     }
 
     fun clear() {
         try {
             cache.clear()
+            knownNamespaces.clear()
+            fileStates.clear()
         }
         catch (_: Exception) {}
     }
@@ -27,16 +76,22 @@ class PreferenceCache(val context: Context) {
         if(selectedNamespace == null)
             throw IllegalStateException("No active namespace selected")
 
-        val name = context.getString(nameRes)
-        val current = uncachedGet(context, selectedNamespace!!, nameRes, default, type)
+        val name = keyNames.getOrPut(nameRes) { resolveKey(nameRes) }
+        if(!selectedIsDirty)
+            cache[name]?.let { return it as T }
+
+        val prefs = selectedPreferences ?: openPreferences(selectedNamespace!!)
+        val current = readValue(prefs, name, default, type)
         val unchanged = cache.containsKey(name) && cache[name] == current
-        if(!unchanged && !changedNamespaces.contains(selectedNamespace)) {
-            selectedNamespace?.let {
-                changedNamespaces.add(it)
+        if(!unchanged) {
+            if(!changedNamespaces.contains(selectedNamespace)) {
+                selectedNamespace?.let {
+                    changedNamespaces.add(it)
+                }
             }
+            onValueChanged(name, current.toString())
         }
 
-        CrashlyticsImpl.setCustomKey("dsp_$name", current.toString())
         cache[name] = current as Any
         return current
     }
@@ -57,7 +112,6 @@ class PreferenceCache(val context: Context) {
             return context.getSharedPreferences(namespace, Context.MODE_MULTI_PROCESS)
         }
 
-        @Suppress("UNCHECKED_CAST")
         fun <T : Any> uncachedGet(
             context: Context,
             namespace: String,
@@ -65,16 +119,18 @@ class PreferenceCache(val context: Context) {
             default: T,
             type: KClass<T>
         ): T {
-            val name = context.getString(nameRes)
-            val prefs = getPreferences(context, namespace)
-            val current: T = when(type) {
+            return readValue(getPreferences(context, namespace), context.getString(nameRes), default, type)
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun <T : Any> readValue(prefs: SharedPreferences, name: String, default: T, type: KClass<T>): T {
+            return when(type) {
                 Boolean::class -> prefs.getBoolean(name, default as Boolean) as T
                 String::class -> prefs.getString(name, default as String) as T
                 Int::class -> prefs.getInt(name, default as Int) as T
                 Float::class -> prefs.getFloat(name, default as Float) as T
                 else -> throw IllegalArgumentException("Unknown type")
             }
-            return current
         }
 
         inline fun <reified T : Any> uncachedGet(
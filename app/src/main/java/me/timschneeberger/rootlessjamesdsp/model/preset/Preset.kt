@@ -37,14 +37,16 @@ class Preset(val name: String, externalPath: File? = null): KoinComponent {
     }
 
     /**
+     * @param namespacePrefix Loads the preset into prefixed copies of the DSP namespaces instead of the main ones
      * @exception Exception if preset cannot be loaded
      */
-    fun load(): PresetMetadata {
+    fun load(namespacePrefix: String = ""): PresetMetadata {
         val file = file()
         Timber.d("Loading preset from ${file.path}")
         return load(
             ctx,
-            FileInputStream(file)
+            FileInputStream(file),
+            namespacePrefix
         )
     }
 
@@ -123,9 +125,11 @@ class Preset(val name: String, externalPath: File? = null): KoinComponent {
         fun validate(inputStream: InputStream) = Tar.Reader(inputStream, ::isKnownEntry).validate()
 
         /**
+         * @param namespacePrefix Loads the preset into prefixed copies of the DSP namespaces instead of the main ones.
+         *                        Embedded Liveprog scripts are not extracted in that case.
          * @exception Exception if preset cannot be loaded
          */
-        fun load(ctx: Context, stream: InputStream): PresetMetadata {
+        fun load(ctx: Context, stream: InputStream, namespacePrefix: String = ""): PresetMetadata {
             Timber.d("Loading preset from stream")
 
             val targetFolder = File(ctx.cacheDir, "preset")
@@ -156,15 +160,15 @@ class Preset(val name: String, externalPath: File? = null): KoinComponent {
             }
 
             files.forEach next@ { f ->
-                if(!isKnownEntry(f.name))
+                if(!isKnownEntry(f.name) || (namespacePrefix.isNotEmpty() && f.name == FILE_LIVEPROG))
                     return@next
 
-                val target = File(currentPath(ctx), f.name)
+                val target = File(currentPath(ctx), namespacePrefix + f.name)
                 f.copyTo(target, overwrite = true)
                 Timber.d("Copying to ${target.absolutePath}")
             }
 
-            if (files.any { it.name == FILE_LIVEPROG }) {
+            if (namespacePrefix.isEmpty() && files.any { it.name == FILE_LIVEPROG }) {
                 findLiveprogScriptPath(ctx)?.let {
                     val originalFile = File(it)
                     val targetFile =
@@ -195,7 +199,10 @@ class Preset(val name: String, externalPath: File? = null): KoinComponent {
             // clean up
             targetFolder.deleteRecursively()
 
-            ctx.broadcastPresetLoadEvent()
+            if(namespacePrefix.isEmpty())
+                ctx.broadcastPresetLoadEvent()
+            else
+                ctx.sendLocalBroadcast(Intent(Constants.ACTION_PREFERENCES_UPDATED))
 
             return metadata.toMutableMap()
         }
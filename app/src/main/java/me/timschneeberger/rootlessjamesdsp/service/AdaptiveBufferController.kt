@@ -0,0 +1,95 @@
+package me.timschneeberger.rootlessjamesdsp.service
+
+import timber.log.Timber
+
+/**
+ * Picks the rootless buffer size (in samples, both channels) at runtime.
+ * Grows the buffer as soon as underruns occur or processing gets close to the buffer period,
+ * and shrinks it back towards [minSize] after a longer stretch without problems.
+ * Only called from the recorder thread.
+ */
+class AdaptiveBufferController(private val minSize: Int, private val maxSize: Int, initialSize: Int) {
+    var bufferSize = initialSize.coerceIn(minSize, maxSize)
+        private set
+
+    private var lastUnderrunCount = 0
+    private var windowStartNs = 0L
+    private var windowUnderruns = 0
+    private var windowBlocks = 0
+    private var windowLoadSum = 0.0
+    private var lastChangeNs = 0L
+    private var lastProblemNs = 0L
+
+    /**
+     * Feeds the statistics of one block. Returns the new buffer size if the pipeline should be rebuilt, otherwise null.
+     * [underrunCount] is the cumulative AudioTrack underrun count.
+     */
+    fun onBlock(underrunCount: Int, processNs: Long, periodNs: Long, nowNs: Long): Int? {
+        if(windowStartNs == 0L) {
+            windowStartNs = nowNs
+            lastChangeNs = nowNs
+            lastProblemNs = nowNs
+        }
+
+        if(underrunCount > lastUnderrunCount)
+            windowUnderruns += underrunCount - lastUnderrunCount
+        lastUnderrunCount = underrunCount
+        if(periodNs > 0) {
+            windowLoadSum += processNs.toDouble() / periodNs
+            windowBlocks++
+        }
+
+        if(nowNs - windowStartNs < EVALUATION_INTERVAL_NS)
+            return null
+
+        val load = if(windowBlocks > 0) windowLoadSum / windowBlocks else 0.0
+        val underruns = windowUnderruns
+        resetWindow(nowNs)
+
+        // A freshly started track tends to underrun once; give it one window to settle
+        if(nowNs - lastChangeNs < EVALUATION_INTERVAL_NS * 2)
+            return null
+
+        if(underruns > 0 || load > GROW_LOAD_THRESHOLD) {
+            lastProblemNs = nowNs
+            if(bufferSize < maxSize)
+                return changeSize((bufferSize * 2).coerceAtMost(maxSize), nowNs,
+                    "$underruns underruns, load ${(load * 100).toInt()}%")
+        }
+        else if(load < SHRINK_LOAD_THRESHOLD && bufferSize > minSize &&
+            nowNs - lastProblemNs >= SHRINK_HOLD_NS && nowNs - lastChangeNs >= SHRINK_HOLD_NS) {
+            return changeSize((bufferSize / 2 / SIZE_STEP * SIZE_STEP).coerceAtLeast(minSize), nowNs,
+                "stable, load ${(load * 100).toInt()}%")
+        }
+        return null
+    }
+
+    /** Must be called after the AudioTrack has been recreated; its underrun counter starts at zero again */
+    fun onPipelineRebuilt() {
+        lastUnderrunCount = 0
+    }
+
+    private fun changeSize(newSize: Int, nowNs: Long, reason: String): Int {
+        Timber.i("Adaptive buffer size: $bufferSize -> $newSize ($reason)")
+        bufferSize = newSize
+        lastChangeNs = nowNs
+        return newSize
+    }
+
+    private fun resetWindow(nowNs: Long) {
+        windowStartNs = nowNs
+        windowUnderruns = 0
+        windowBlocks = 0
+        windowLoadSum = 0.0
+    }
+
+    companion object {
+        private const val EVALUATION_INTERVAL_NS = 1_000_000_000L
+        private const val SHRINK_HOLD_NS = 15_000_000_000L
+        private const val GROW_LOAD_THRESHOLD = 0.8
+        private const val SHRINK_LOAD_THRESHOLD = 0.4
+
+        /** Buffer sizes are kept at multiples of this many samples, like the buffer size preference */
+        const val SIZE_STEP = 128
+    }
+}
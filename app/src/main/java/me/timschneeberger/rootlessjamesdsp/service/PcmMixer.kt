@@ -0,0 +1,24 @@
+package me.timschneeberger.rootlessjamesdsp.service
+
+import java.nio.ByteBuffer
+
+/**
+ * Adds one interleaved PCM block onto another in place, with saturation.
+ * Both buffers must use the same byte order; positions and limits are ignored.
+ */
+object PcmMixer {
+    fun mixInt16(target: ByteBuffer, source: ByteBuffer, samples: Int) {
+        for (i in 0 until samples) {
+            val idx = i * Short.SIZE_BYTES
+            val sum = target.getShort(idx) + source.getShort(idx)
+            target.putShort(idx, sum.coerceIn(Short.MIN_VALUE.toInt(), Short.MAX_VALUE.toInt()).toShort())
+        }
+    }
+
+    fun mixFloat(target: ByteBuffer, source: ByteBuffer, samples: Int) {
+        for (i in 0 until samples) {
+            val idx = i * Float.SIZE_BYTES
+            target.putFloat(idx, (target.getFloat(idx) + source.getFloat(idx)).coerceIn(-1f, 1f))
+        }
+    }
+}
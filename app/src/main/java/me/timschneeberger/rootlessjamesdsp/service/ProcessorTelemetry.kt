@@ -0,0 +1,109 @@
+package me.timschneeberger.rootlessjamesdsp.service
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.roundToInt
+
+/**
+ * Lock-free per-block timing statistics of the rootless audio pipeline.
+ * Written by the recorder thread without allocating; read by the UI and the debug dump.
+ */
+object ProcessorTelemetry {
+    // Load histogram in 10% steps of the buffer period; the last bucket collects everything above 100%
+    private const val LOAD_BUCKETS = 11
+    private val loadHistogram = AtomicLongArray(LOAD_BUCKETS)
+
+    private val blocks = AtomicLong()
+    private val readNsTotal = AtomicLong()
+    private val processNsTotal = AtomicLong()
+    private val writeNsTotal = AtomicLong()
+    private val processNsMax = AtomicLong()
+    private val underruns = AtomicLong()
+    private val shortReads = AtomicLong()
+
+    @Volatile var sampleRate = 0
+        private set
+    @Volatile var bufferFrames = 0
+        private set
+    @Volatile private var periodNs = 0L
+
+    /** Resets all counters; called whenever the pipeline is (re)configured */
+    fun reset(sampleRate: Int, bufferFrames: Int) {
+        this.sampleRate = sampleRate
+        this.bufferFrames = bufferFrames
+        periodNs = if(sampleRate > 0) bufferFrames * 1_000_000_000L / sampleRate else 0L
+
+        for (i in 0 until LOAD_BUCKETS)
+            loadHistogram.set(i, 0)
+        blocks.set(0)
+        readNsTotal.set(0)
+        processNsTotal.set(0)
+        writeNsTotal.set(0)
+        processNsMax.set(0)
+        underruns.set(0)
+        shortReads.set(0)
+    }
+
+    fun recordBlock(readNs: Long, processNs: Long, writeNs: Long) {
+        blocks.incrementAndGet()
+        readNsTotal.addAndGet(readNs)
+        processNsTotal.addAndGet(processNs)
+        writeNsTotal.addAndGet(writeNs)
+
+        var max = processNsMax.get()
+        while (processNs > max && !processNsMax.compareAndSet(max, processNs))
+            max = processNsMax.get()
+
+        val period = periodNs
+        if (period > 0)
+            loadHistogram.incrementAndGet((processNs * 10 / period).toInt().coerceIn(0, LOAD_BUCKETS - 1))
+    }
+
+    /** Total underrun count as reported by the AudioTrack */
+    fun setUnderruns(count: Int) = underruns.set(count.toLong())
+
+    /** Reads that returned less data than requested or an error */
+    fun recordShortRead() = shortReads.incrementAndGet()
+
+    val blockCount: Long
+        get() = blocks.get()
+
+    /** Average processing time relative to the buffer period in percent */
+    val averageLoad: Int
+        get() {
+            val n = blocks.get()
+            val period = periodNs
+            if (n == 0L || period == 0L)
+                return 0
+            return (processNsTotal.get().toDouble() / n / period * 100).roundToInt()
+        }
+
+    fun summary(): String {
+        return "load ${averageLoad}% (peak ${percentOfPeriod(processNsMax.get())}%), " +
+                "${underruns.get()} underruns, ${shortReads.get()} short reads"
+    }
+
+    fun dumpString(): String {
+        val n = blocks.get()
+        val sb = StringBuilder()
+        sb.append("Sample rate: $sampleRate; buffer: $bufferFrames frames; period: ${periodNs / 1000}us\n")
+        sb.append("Blocks: $n; underruns: ${underruns.get()}; short reads: ${shortReads.get()}\n")
+        if (n > 0) {
+            sb.append("Average read: ${readNsTotal.get() / n / 1000}us; " +
+                    "process: ${processNsTotal.get() / n / 1000}us; " +
+                    "write: ${writeNsTotal.get() / n / 1000}us\n")
+            sb.append("Load: average ${averageLoad}%; peak ${percentOfPeriod(processNsMax.get())}%\n")
+            sb.append("Load histogram:\n")
+            for (i in 0 until LOAD_BUCKETS) {
+                val label = if (i < LOAD_BUCKETS - 1) "${i * 10}-${i * 10 + 10}%" else ">100%"
+                sb.append("\t$label: ${loadHistogram.get(i)}\n")
+            }
+        }
+        return sb.toString()
+    }
+
+    private fun percentOfPeriod(ns: Long): Int {
+        val period = periodNs
+        return if (period > 0) (ns * 100 / period).toInt() else 0
+    }
+}
@@ -8,6 +8,7 @@ import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
 import android.content.SharedPreferences
+import android.content.pm.PackageManager
 import android.content.pm.ServiceInfo
 import android.media.AudioAttributes
 import android.media.AudioFormat
@@ -62,6 +63,8 @@ import me.timschneeberger.rootlessjamesdsp.utils.sdkAbove
 import org.koin.android.ext.android.inject
 import timber.log.Timber
 import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 
 
 @RequiresApi(Build.VERSION_CODES.Q)
@@ -79,6 +82,9 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
     private var recreateRecorderRequested = false
     private var recorderThread: Thread? = null
     private lateinit var engine: JamesDspLocalEngine
+    // Separate capture stream and effect chain for the apps selected in the stream group settings
+    @Volatile private var streamGroup: StreamGroupProcessor? = null
+    private var streamGroupUids = emptySet<Int>()
     private val isRunning: Boolean
         get() = recorderThread != null
 
@@ -129,7 +135,7 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
 
         // Setup core engine
         engine = JamesDspLocalEngine(this, ProcessorMessageHandler())
-        engine.syncWithPreferences()
+        engine.syncWithPreferences(immediate = true)
 
         // Setup general-purpose broadcast receiver
         val filter = IntentFilter()
@@ -143,6 +149,7 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
         // Setup shared preferences
         preferences.registerOnSharedPreferenceChangeListener(preferencesListener)
         loadFromPreferences(getString(R.string.key_powersave_suspend))
+        loadFromPreferences(getString(R.string.key_powersave_silence_bypass))
         loadFromPreferences(getString(R.string.key_session_exclude_restricted))
 
         // Setup database observer
@@ -283,9 +290,17 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
     private val broadcastReceiver: BroadcastReceiver = object : BroadcastReceiver() {
         override fun onReceive(context: Context, intent: Intent) {
             when (intent.action) {
-                ACTION_SAMPLE_RATE_UPDATED -> engine.syncWithPreferences(arrayOf(Constants.PREF_CONVOLVER))
-                ACTION_PREFERENCES_UPDATED -> engine.syncWithPreferences()
-                ACTION_SERVICE_RELOAD_LIVEPROG -> engine.syncWithPreferences(arrayOf(Constants.PREF_LIVEPROG))
+                ACTION_SAMPLE_RATE_UPDATED -> engine.syncWithPreferences(arrayOf(Constants.PREF_CONVOLVER), immediate = true)
+                ACTION_PREFERENCES_UPDATED -> {
+                    engine.syncWithPreferences()
+                    streamGroup?.engine?.syncWithPreferences()
+                }
+                ACTION_SERVICE_RELOAD_LIVEPROG -> {
+                    if(intent.getBooleanExtra(Constants.EXTRA_LIVEPROG_FORCE_RECOMPILE, false))
+                        engine.invalidateLiveprogCache()
+                    engine.syncWithPreferences(arrayOf(Constants.PREF_LIVEPROG), immediate = true)
+                    streamGroup?.engine?.syncWithPreferences(arrayOf(Constants.PREF_LIVEPROG), immediate = true)
+                }
                 ACTION_SERVICE_HARD_REBOOT_CORE -> restartRecording()
                 ACTION_SERVICE_SOFT_REBOOT_CORE -> requestAudioRecordRecreation()
             }
@@ -389,6 +404,11 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
                 suspendOnIdle = preferences.get<Boolean>(R.string.key_powersave_suspend)
                 Timber.d("Suspend on idle set to $suspendOnIdle")
             }
+            getString(R.string.key_powersave_silence_bypass) -> {
+                engine.silenceBypass = preferences.get<Boolean>(R.string.key_powersave_silence_bypass)
+                streamGroup?.engine?.silenceBypass = engine.silenceBypass
+                Timber.d("Silence bypass set to ${engine.silenceBypass}")
+            }
             getString(R.string.key_session_exclude_restricted) -> {
                 excludeRestrictedSessions = preferences.get<Boolean>(R.string.key_session_exclude_restricted)
                 Timber.d("Exclude restricted set to $excludeRestrictedSessions")
@@ -422,11 +442,21 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
         val encoding = AudioEncoding.fromInt(
             preferences.get<String>(R.string.key_audioformat_encoding).toIntOrNull() ?: 1
         )
-        val bufferSize = preferences.get<Float>(R.string.key_audioformat_buffersize).toInt()
-        val bufferSizeBytes = when (encoding) {
-            AudioEncoding.PcmFloat -> bufferSize * Float.SIZE_BYTES
-            else -> bufferSize * Short.SIZE_BYTES
+        val sampleSizeBytes = when (encoding) {
+            AudioEncoding.PcmFloat -> Float.SIZE_BYTES
+            else -> Short.SIZE_BYTES
         }
+        var bufferSize = preferences.get<Float>(R.string.key_audioformat_buffersize).toInt()
+
+        // Adaptive mode starts at the preferred buffer size and may shrink down to the HAL buffer size (stereo samples)
+        val adaptiveController = if(preferences.get<Boolean>(R.string.key_audioformat_buffersize_adaptive)) {
+            val step = AdaptiveBufferController.SIZE_STEP
+            // Devices with very large HAL buffers would otherwise exceed the upper bound
+            val halSize = (((determineBufferSize() * 2 + step - 1) / step) * step).coerceAtMost(MAX_BUFFER_SIZE)
+            AdaptiveBufferController(halSize, MAX_BUFFER_SIZE, bufferSize).also { bufferSize = it.bufferSize }
+        } else null
+
+        var bufferSizeBytes = bufferSize * sampleSizeBytes
         val encodingFormat = when (encoding) {
             AudioEncoding.PcmShort -> AudioFormat.ENCODING_PCM_16BIT
             else -> AudioFormat.ENCODING_PCM_FLOAT
@@ -436,10 +466,14 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
         Timber.i("Sample rate: $sampleRate; Encoding: ${encoding.name}; " +
                 "Buffer size: $bufferSize; Buffer size (bytes): $bufferSizeBytes ; " +
                 "HAL buffer size (bytes): ${determineBufferSize()}")
+        ProcessorTelemetry.reset(sampleRate, bufferSize / 2)
+
+        // Apps of the stream group are excluded from the main recorder and captured separately
+        streamGroupUids = resolveStreamGroupUids()
 
         // Create recorder and track
         var recorder: AudioRecord
-        val track: AudioTrack
+        var track: AudioTrack
         try {
             recorder = buildAudioRecord(encodingFormat, sampleRate, bufferSizeBytes)
             track = buildAudioTrack(encodingFormat, sampleRate, bufferSizeBytes)
@@ -451,20 +485,40 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
             return
         }
 
+        // The main chain keeps running without the stream group if its recorder can't be created
+        if(streamGroupUids.isNotEmpty()) {
+            Timber.i("Stream group UIDs: ${streamGroupUids.joinToString("; ")}")
+            try {
+                streamGroup = StreamGroupProcessor(this, streamGroupUids, encoding, sampleRate, bufferSizeBytes) {
+                    buildStreamGroupAudioRecord(encodingFormat, sampleRate, it, streamGroupUids)
+                }.also {
+                    it.engine.silenceBypass = engine.silenceBypass
+                }
+            }
+            catch(ex: Exception) {
+                Timber.e("Failed to create stream group recorder")
+                Timber.e(ex)
+            }
+        }
+
+        engine.pipelinedProcessing = preferences.get<Boolean>(R.string.key_audioformat_pipelined)
+
         if(engine.sampleRate.toInt() != sampleRate) {
             Timber.d("Sampling rate changed to ${sampleRate}Hz")
             engine.sampleRate = sampleRate.toFloat()
         }
 
-        // TODO Move all audio-related code to C++
-        recorderThread = Thread {
+        // Capture must stay in Java; AudioPlaybackCaptureConfiguration has no native (AAudio/Oboe) equivalent
+        val group = streamGroup
+        recorderThread = Thread({
             try {
+                raiseThreadPriority()
                 ServiceNotificationHelper.pushServiceNotification(applicationContext, arrayOf())
 
-                val floatBuffer = FloatArray(bufferSize)
-                val floatOutBuffer = FloatArray(bufferSize)
-                val shortBuffer = ShortArray(bufferSize)
-                val shortOutBuffer = ShortArray(bufferSize)
+                // Samples are processed in-place inside a single direct buffer shared with native code
+                var buffer = ByteBuffer.allocateDirect(bufferSizeBytes).order(ByteOrder.nativeOrder())
+                val frameSizeBytes = 2 * sampleSizeBytes // stereo
+                var periodNs = bufferSize / 2 * 1_000_000_000L / sampleRate
                 while (!isProcessorDisposing) {
                     if(recreateRecorderRequested) {
                         recreateRecorderRequested = false
@@ -484,6 +538,7 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
 
                         // Recreate recorder with new AudioPlaybackRecordingConfiguration
                         recorder = buildAudioRecord(encodingFormat, sampleRate, bufferSizeBytes)
+                        group?.rebuild(bufferSizeBytes)
                         Timber.d("Recorder recreated")
                     }
 
@@ -496,6 +551,7 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
                         if(track.state == AudioTrack.STATE_INITIALIZED &&
                             track.playState != AudioTrack.PLAYSTATE_STOPPED)
                             track.stop()
+                        group?.stop()
 
                         try {
                             Thread.sleep(50)
@@ -515,16 +571,76 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
                         track.play()
                     }
 
-                    // Choose encoding and process data
-                    if(encoding == AudioEncoding.PcmShort) {
-                        recorder.read(shortBuffer, 0, shortBuffer.size, AudioRecord.READ_BLOCKING)
-                        engine.processInt16(shortBuffer, shortOutBuffer)
-                        track.write(shortOutBuffer, 0, shortOutBuffer.size, AudioTrack.WRITE_BLOCKING)
+                    val readStart = System.nanoTime()
+                    buffer.clear()
+                    val bytesRead = recorder.read(buffer, bufferSizeBytes, AudioRecord.READ_BLOCKING)
+                    if(bytesRead <= 0) {
+                        // The buffer still holds the previous, already processed block; play silence instead.
+                        // Writing a full block keeps the loop paced by the track while the recorder reports errors.
+                        buffer.clear()
+                        while(buffer.remaining() >= Long.SIZE_BYTES)
+                            buffer.putLong(0L)
+                        while(buffer.hasRemaining())
+                            buffer.put(0)
+                        buffer.position(0)
+                        track.write(buffer, bufferSizeBytes, AudioTrack.WRITE_BLOCKING)
+                        ProcessorTelemetry.recordShortRead()
+                        continue
                     }
-                    else {
-                        recorder.read(floatBuffer, 0, floatBuffer.size, AudioRecord.READ_BLOCKING)
-                        engine.processFloat(floatBuffer, floatOutBuffer)
-                        track.write(floatOutBuffer, 0, floatOutBuffer.size, AudioTrack.WRITE_BLOCKING)
+
+                    // Only process what was actually captured
+                    val bytes = bytesRead - bytesRead % frameSizeBytes
+                    val frames = bytes / frameSizeBytes
+
+                    // The stream group captures and processes the same amount on its own worker meanwhile
+                    group?.submit(frames)
+
+                    // Choose encoding and process data
+                    // In pipelined mode, the output is the previous block and may differ in length
+                    val processStart = System.nanoTime()
+                    val outFrames = if(encoding == AudioEncoding.PcmShort)
+                        engine.processInt16Direct(buffer, buffer, frames)
+                    else
+                        engine.processFloatDirect(buffer, buffer, frames)
+
+                    // Don't stall the track for longer than one period if the stream group is late
+                    group?.mixInto(buffer, outFrames, periodNs)
+
+                    val writeStart = System.nanoTime()
+                    buffer.position(0)
+                    track.write(buffer, outFrames * frameSizeBytes, AudioTrack.WRITE_BLOCKING)
+
+                    // When pipelined, the call above mostly waits for the worker; use the worker's own DSP time instead
+                    val processNs = engine.pipelineProcessingTimeNs ?: (writeStart - processStart)
+                    ProcessorTelemetry.recordBlock(processStart - readStart, processNs, System.nanoTime() - writeStart)
+                    ProcessorTelemetry.setUnderruns(track.underrunCount)
+                    if(bytesRead < bufferSizeBytes)
+                        ProcessorTelemetry.recordShortRead()
+
+                    // Rebuild recorder, track and buffer if the adaptive controller picked a new buffer size
+                    adaptiveController?.onBlock(track.underrunCount, processNs, periodNs, System.nanoTime())?.let { newSize ->
+                        recorder.stop()
+                        track.stop()
+                        recorder.release()
+                        track.release()
+
+                        if (mediaProjection == null) {
+                            Timber.e("Media projection handle is null, stopping service")
+                            stopSelf()
+                            return@Thread
+                        }
+
+                        bufferSize = newSize
+                        bufferSizeBytes = newSize * sampleSizeBytes
+                        periodNs = bufferSize / 2 * 1_000_000_000L / sampleRate
+                        recorder = buildAudioRecord(encodingFormat, sampleRate, bufferSizeBytes)
+                        track = buildAudioTrack(encodingFormat, sampleRate, bufferSizeBytes)
+                        buffer = ByteBuffer.allocateDirect(bufferSizeBytes).order(ByteOrder.nativeOrder())
+                        group?.rebuild(bufferSizeBytes)
+
+                        adaptiveController.onPipelineRebuilt()
+                        ProcessorTelemetry.reset(sampleRate, bufferSize / 2)
+                        Timber.d("Recorder and track rebuilt with buffer size $bufferSize")
                     }
                 }
             } catch (e: IOException) {
@@ -545,11 +661,31 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
 
                 recorder.release()
                 track.release()
+
+                group?.close()
+                if(streamGroup === group)
+                    streamGroup = null
             }
-        }
+        }, RECORDER_THREAD_NAME)
         recorderThread!!.start()
     }
 
+    // URGENT_AUDIO is not guaranteed to be available to apps; fall back to the regular audio priority
+    private fun raiseThreadPriority() {
+        try {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO)
+        }
+        catch (ex: SecurityException) {
+            Timber.w("Urgent audio priority denied; using audio priority")
+            try {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO)
+            }
+            catch (ex: SecurityException) {
+                Timber.w(ex)
+            }
+        }
+    }
+
     // Terminate recording thread
     fun stopRecording() {
         if (recorderThread != null) {
@@ -642,10 +778,12 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
         excluded += Process.myUid()
 
         excluded.forEach { configBuilder.excludeUid(it) }
+        // Stream group apps are still processed (by the second chain), so they remain visible to the session database
+        streamGroupUids.forEach { configBuilder.excludeUid(it) }
         sessionManager.sessionDatabase.setExcludedUids(excluded.toTypedArray())
         sessionManager.pollOnce(false)
 
-        Timber.d("buildAudioRecord: Excluded UIDs: ${excluded.joinToString("; ")}")
+        Timber.d("buildAudioRecord: Excluded UIDs: ${(excluded + streamGroupUids).joinToString("; ")}")
 
         return AudioRecord.Builder()
             .setAudioFormat(format)
@@ -654,6 +792,55 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
             .build()
     }
 
+    // Captures only the given apps; a configuration can't mix matching and excluded UIDs
+    @SuppressLint("MissingPermission")
+    private fun buildStreamGroupAudioRecord(encoding: Int, sampleRate: Int, bufferSizeBytes: Int, uids: Set<Int>): AudioRecord {
+        if (!hasRecordPermission()) {
+            Timber.e("buildStreamGroupAudioRecord: RECORD_AUDIO not granted")
+            throw RuntimeException("RECORD_AUDIO not granted")
+        }
+
+        val format = AudioFormat.Builder()
+            .setEncoding(encoding)
+            .setSampleRate(sampleRate)
+            .setChannelMask(AudioFormat.CHANNEL_IN_STEREO)
+            .build()
+
+        val configBuilder = AudioPlaybackCaptureConfiguration.Builder(mediaProjection!!)
+            .addMatchingUsage(AudioAttributes.USAGE_MEDIA)
+            .addMatchingUsage(AudioAttributes.USAGE_GAME)
+            .addMatchingUsage(AudioAttributes.USAGE_UNKNOWN)
+        uids.forEach { configBuilder.addMatchingUid(it) }
+
+        return AudioRecord.Builder()
+            .setAudioFormat(format)
+            .setBufferSizeInBytes(bufferSizeBytes)
+            .setAudioPlaybackCaptureConfig(configBuilder.build())
+            .build()
+    }
+
+    // Resolve the apps selected for the stream group; blocked apps stay excluded from both chains
+    private fun resolveStreamGroupUids(): Set<Int> {
+        if(!preferences.get<Boolean>(R.string.key_stream_group_enable))
+            return emptySet()
+
+        val blocked = blockedApps.value?.map { it.uid }.orEmpty()
+        return preferences.get<String>(R.string.key_stream_group_apps)
+            .split(";")
+            .filter { it.isNotBlank() }
+            .mapNotNull { packageName ->
+                try {
+                    packageManager.getApplicationInfo(packageName, 0).uid
+                }
+                catch (ex: PackageManager.NameNotFoundException) {
+                    Timber.w("resolveStreamGroupUids: $packageName not installed")
+                    null
+                }
+            }
+            .filter { it != Process.myUid() && it !in blocked }
+            .toSet()
+    }
+
     // Determine HAL sampling rate
     private fun determineSamplingRate(): Int {
         val sampleRateStr: String? = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE)
@@ -670,6 +857,8 @@ class RootlessAudioProcessorService : BaseAudioProcessorService() {
 
     companion object {
         const val SESSION_LOSS_MAX_RETRIES = 1
+        private const val MAX_BUFFER_SIZE = 16384
+        private const val RECORDER_THREAD_NAME = "JamesDspRecorder"
 
         const val ACTION_START = BuildConfig.APPLICATION_ID + ".rootless.service.START"
         const val ACTION_STOP = BuildConfig.APPLICATION_ID + ".rootless.service.STOP"
@@ -0,0 +1,151 @@
+package me.timschneeberger.rootlessjamesdsp.service
+
+import android.content.Context
+import android.media.AudioRecord
+import android.os.Build
+import android.os.Process
+import androidx.annotation.RequiresApi
+import me.timschneeberger.rootlessjamesdsp.interop.JamesDspLocalEngine
+import me.timschneeberger.rootlessjamesdsp.model.preference.AudioEncoding
+import me.timschneeberger.rootlessjamesdsp.utils.Constants
+import timber.log.Timber
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Second capture stream of the rootless service for the apps in [uids].
+ * The group is captured by its own AudioRecord (see [recorderFactory]) and processed by its own engine,
+ * which reads the preset stored under [Constants.PREF_STREAM_GROUP_PREFIX]. Processing runs on a worker thread
+ * in parallel to the main chain; the result is mixed into the main block before it is written to the track.
+ * Only called from the recorder thread.
+ */
+@RequiresApi(Build.VERSION_CODES.Q)
+class StreamGroupProcessor(
+    context: Context,
+    val uids: Set<Int>,
+    private val encoding: AudioEncoding,
+    sampleRate: Int,
+    bufferSizeBytes: Int,
+    private val recorderFactory: (bufferSizeBytes: Int) -> AudioRecord,
+) : AutoCloseable {
+    // Created first so that nothing else needs to be released if capturing the group fails
+    private var recorder = recorderFactory(bufferSizeBytes)
+    val engine = JamesDspLocalEngine(context, null, Constants.PREF_STREAM_GROUP_PREFIX)
+
+    private val sampleSizeBytes = if(encoding == AudioEncoding.PcmFloat) Float.SIZE_BYTES else Short.SIZE_BYTES
+    private val frameSizeBytes = 2 * sampleSizeBytes // stereo
+    private val worker = Executors.newSingleThreadExecutor { runnable ->
+        Thread({
+            try {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO)
+            }
+            catch (ex: SecurityException) {
+                Timber.w(ex)
+            }
+            runnable.run()
+        }, WORKER_THREAD_NAME)
+    }
+
+    private var buffer = ByteBuffer.allocateDirect(bufferSizeBytes).order(ByteOrder.nativeOrder())
+    // Frames processed by the running or finished task; null if no task was submitted since the last mix
+    private var pending: Future<Int>? = null
+
+    init {
+        engine.sampleRate = sampleRate.toFloat()
+        engine.syncWithPreferences(immediate = true)
+    }
+
+    /**
+     * Captures and processes [frames] frames of the group on the worker thread.
+     * Skipped if the previous block has not been mixed yet, e.g. because the group recorder stalled.
+     */
+    fun submit(frames: Int) {
+        if(pending != null)
+            return
+
+        if(recorder.recordingState == AudioRecord.RECORDSTATE_STOPPED)
+            recorder.startRecording()
+
+        val bytes = (frames * frameSizeBytes).coerceAtMost(buffer.capacity())
+        pending = worker.submit<Int> {
+            buffer.clear()
+            val bytesRead = recorder.read(buffer, bytes, AudioRecord.READ_BLOCKING)
+            if(bytesRead <= 0)
+                return@submit 0
+
+            val readFrames = bytesRead / frameSizeBytes
+            if(encoding == AudioEncoding.PcmShort)
+                engine.processInt16Direct(buffer, buffer, readFrames)
+            else
+                engine.processFloatDirect(buffer, buffer, readFrames)
+        }
+    }
+
+    /**
+     * Waits up to [timeoutNs] for the submitted block and adds it onto the first [frames] frames of [output].
+     * If the block is not ready in time, it is kept and mixed into a later block instead.
+     */
+    fun mixInto(output: ByteBuffer, frames: Int, timeoutNs: Long) {
+        val task = pending ?: return
+        val groupFrames = try {
+            task.get(timeoutNs, TimeUnit.NANOSECONDS)
+        }
+        catch (ex: TimeoutException) {
+            return
+        }
+        catch (ex: ExecutionException) {
+            Timber.e(ex.cause)
+            0
+        }
+        pending = null
+
+        val samples = frames.coerceAtMost(groupFrames) * 2
+        if(encoding == AudioEncoding.PcmShort)
+            PcmMixer.mixInt16(output, buffer, samples)
+        else
+            PcmMixer.mixFloat(output, buffer, samples)
+    }
+
+    /** Suspends capturing, e.g. while the service is idle */
+    fun stop() {
+        awaitPending()
+        if(recorder.state == AudioRecord.STATE_INITIALIZED &&
+            recorder.recordingState == AudioRecord.RECORDSTATE_RECORDING)
+            recorder.stop()
+    }
+
+    /** Recreates the recorder and buffer for a new buffer size */
+    fun rebuild(bufferSizeBytes: Int) {
+        stop()
+        recorder.release()
+        recorder = recorderFactory(bufferSizeBytes)
+        buffer = ByteBuffer.allocateDirect(bufferSizeBytes).order(ByteOrder.nativeOrder())
+    }
+
+    override fun close() {
+        stop()
+        worker.shutdown()
+        recorder.release()
+        engine.close()
+    }
+
+    // The worker may still be reading from the recorder; wait for it before touching the recorder or buffer
+    private fun awaitPending() {
+        try {
+            pending?.get()
+        }
+        catch (ex: ExecutionException) {
+            Timber.e(ex.cause)
+        }
+        pending = null
+    }
+
+    companion object {
+        private const val WORKER_THREAD_NAME = "JamesDspStreamGroup"
+    }
+}
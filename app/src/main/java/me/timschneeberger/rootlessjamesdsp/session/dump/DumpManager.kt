@@ -5,6 +5,7 @@ import android.content.SharedPreferences
 import android.os.Build
 import me.timschneeberger.rootlessjamesdsp.BuildConfig
 import me.timschneeberger.rootlessjamesdsp.R
+import me.timschneeberger.rootlessjamesdsp.service.ProcessorTelemetry
 import me.timschneeberger.rootlessjamesdsp.session.dump.data.ISessionInfoDump
 import me.timschneeberger.rootlessjamesdsp.session.dump.data.ISessionPolicyInfoDump
 import me.timschneeberger.rootlessjamesdsp.session.dump.provider.AudioFlingerServiceDumpProvider
@@ -134,6 +135,9 @@ class DumpManager constructor(val context: Context): KoinComponent {
             }
         }
 
+        sb.append("==================> Audio pipeline telemetry\n")
+        sb.append("${ProcessorTelemetry.dumpString()}\n\n\n")
+
         if(exceptionRaised)
         {
             sb.append("NOTE: One or more exceptions has been raised while collecting debug dumps\n")
@@ -0,0 +1,15 @@
+package me.timschneeberger.rootlessjamesdsp.session.dump.data
+
+import me.timschneeberger.rootlessjamesdsp.model.AudioSessionDumpEntry
+
+data class AudioPlaybackConfigurationDump(override val sessions: HashMap<Int /* sid */, AudioSessionDumpEntry>) :
+    ISessionInfoDump
+{
+    override fun toString(): String {
+        val sb = StringBuilder("\n--> Playback configurations\n")
+        sessions.forEach { (key, value) ->
+            sb.append("sid=$key\t-> $value\n")
+        }
+        return sb.toString()
+    }
+}
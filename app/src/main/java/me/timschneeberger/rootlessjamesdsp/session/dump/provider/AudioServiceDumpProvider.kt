@@ -6,10 +6,14 @@ import me.timschneeberger.rootlessjamesdsp.session.dump.data.AudioServiceDump
 import me.timschneeberger.rootlessjamesdsp.session.dump.data.ISessionInfoDump
 import me.timschneeberger.rootlessjamesdsp.session.dump.utils.AudioFlingerServiceDumpUtils
 import me.timschneeberger.rootlessjamesdsp.session.dump.utils.DumpUtils
-import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.getPackageNameFromUid
+import me.timschneeberger.rootlessjamesdsp.utils.PackageNameCache
+import org.koin.core.component.KoinComponent
+import org.koin.core.component.inject
 import timber.log.Timber
 
-class AudioServiceDumpProvider : ISessionDumpProvider {
+class AudioServiceDumpProvider : ISessionDumpProvider, KoinComponent {
+
+    private val packageNameCache: PackageNameCache by inject()
 
     override fun dump(context: Context): ISessionInfoDump? {
         val dump = DumpUtils.dumpAll(context, TARGET_SERVICE)
@@ -94,7 +98,7 @@ class AudioServiceDumpProvider : ISessionDumpProvider {
                     return@next
                 }
 
-                val pkg = context.getPackageNameFromUid(uid) ?: uid.toString()
+                val pkg = packageNameCache.getPackageName(uid) ?: uid.toString()
                 sessions[sid] = AudioSessionDumpEntry(uid, pkg, usage, content)
             } catch (ex: NumberFormatException) {
                 Timber.e("Failed to parse match")
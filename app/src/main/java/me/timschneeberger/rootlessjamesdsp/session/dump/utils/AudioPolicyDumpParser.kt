@@ -0,0 +1,121 @@
+package me.timschneeberger.rootlessjamesdsp.session.dump.utils
+
+import me.timschneeberger.rootlessjamesdsp.model.AudioSessionDumpEntry
+import me.timschneeberger.rootlessjamesdsp.session.dump.data.AudioPolicyServiceDump
+import me.timschneeberger.rootlessjamesdsp.utils.isRootless
+import timber.log.Timber
+import java.io.BufferedReader
+import java.util.Locale
+
+/**
+ * Streaming parser for the `media.audio_policy` dump.
+ */
+object AudioPolicyDumpParser {
+    // Common prefix of "Session Id:" (API 29+) and "Session ID:" (API 33+)
+    private const val SESSION_MARKER = "Session I"
+    private const val ATTRIBUTES_MARKER = "Attributes:"
+    private const val CONTENT_TYPE_MARKER = "Content type:"
+    private const val USAGE_MARKER = "Usage:"
+    private const val CAPTURE_ALLOWED_MARKER = "allowPlaybackCapture="
+
+    // API 29+
+    private val sessionRegex = """Session Id:\s*(\d+)\s+UID:\s*(\d+)""".toRegex()
+    // API 33+
+    private val sessionRegex33 = """Session ID:\s*(\d+);\s*uid \s*(\d+);""".toRegex()
+    // General
+    private val captureAllowedRegex = """allowPlaybackCapture=(\S+)(?:\s*,).+packageName=(\S+)""".toRegex()
+
+    /*
+     * Single pass over the dump, line by line. A session entry starts with its id/uid header;
+     * content type and usage follow after the next 'Attributes:' marker, possibly on separate lines.
+     * The whole dump is read; no assumptions are made about the order of its sections.
+     */
+    fun parse(reader: BufferedReader, packageNameOf: (Int) -> String?): AudioPolicyServiceDump {
+        val sessions = hashMapOf<Int, AudioSessionDumpEntry>()
+        val captureAllowLog = hashMapOf<String, Boolean>()
+
+        var pendingSid: Int? = null
+        var pendingUid = 0
+        var attributesSeen = false
+        var content: String? = null
+
+        while (true) {
+            val line = reader.readLine() ?: break
+
+            if (line.contains(CAPTURE_ALLOWED_MARKER)) {
+                // Parse capture allow log
+                val match = captureAllowedRegex.find(line)
+                val pkgName = match?.groups?.get(2)?.value?.replace("shared:", "")
+                if (pkgName != null) {
+                    val allowed = match.groups[1]?.value?.trim()?.lowercase(Locale.ROOT) == "true"
+                    captureAllowLog[pkgName] = allowed
+                    if (!allowed && isRootless()) {
+                        Timber.v("Playback capture restricted by $pkgName")
+                    }
+                }
+                continue
+            }
+
+            if (line.contains(SESSION_MARKER)) {
+                // API 29+ or API 33+ header
+                val match = sessionRegex.find(line) ?: sessionRegex33.find(line)
+                if (match != null) {
+                    try {
+                        pendingSid = match.groupValues[1].toInt()
+                        pendingUid = match.groupValues[2].toInt()
+                        attributesSeen = false
+                        content = null
+                    } catch (ex: NumberFormatException) {
+                        Timber.e("Failed to parse session header '$line'")
+                        pendingSid = null
+                    }
+                    continue
+                }
+            }
+
+            val sid = pendingSid ?: continue
+            var offset = 0
+            if (!attributesSeen) {
+                val idx = line.indexOf(ATTRIBUTES_MARKER)
+                if (idx < 0)
+                    continue
+                attributesSeen = true
+                offset = idx + ATTRIBUTES_MARKER.length
+            }
+
+            if (content == null) {
+                val idx = line.indexOf(CONTENT_TYPE_MARKER, offset)
+                if (idx < 0)
+                    continue
+                offset = idx + CONTENT_TYPE_MARKER.length
+                content = readWord(line, offset)
+                offset += content.length
+            }
+
+            val usageIdx = line.indexOf(USAGE_MARKER, offset)
+            if (usageIdx < 0)
+                continue
+            val usage = readWord(line, usageIdx + USAGE_MARKER.length)
+
+            val pkg = packageNameOf(pendingUid) ?: pendingUid.toString()
+            val contentType = content.takeUnless { it.isEmpty() } ?: "CONTENT_TYPE_UNKNOWN"
+            sessions[sid] = AudioSessionDumpEntry(pendingUid, pkg, usage, contentType)
+            Timber.v("Found session id $sid (uid $pendingUid; usage $usage; content $contentType; pkg $pkg)")
+            pendingSid = null
+        }
+
+        Timber.d("Dump processed")
+        return AudioPolicyServiceDump(sessions, captureAllowLog)
+    }
+
+    // Returns the word ([A-Za-z0-9_]) following any whitespace at 'start'
+    private fun readWord(line: String, start: Int): String {
+        var begin = start
+        while (begin < line.length && line[begin].isWhitespace())
+            begin++
+        var end = begin
+        while (end < line.length && (line[end].isLetterOrDigit() || line[end] == '_'))
+            end++
+        return line.substring(begin, end)
+    }
+}
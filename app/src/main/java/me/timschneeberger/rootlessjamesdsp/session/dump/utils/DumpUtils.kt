@@ -5,7 +5,7 @@ import android.os.ParcelFileDescriptor
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.PermissionExtensions.hasDumpPermission
 import rikka.shizuku.SystemServiceHelper
 import timber.log.Timber
-import java.io.FileInputStream
+import java.io.BufferedReader
 import java.io.IOException
 import java.io.InputStreamReader
 
@@ -15,6 +15,14 @@ object DumpUtils {
     }
 
     fun dumpAll(context: Context, service: String, args: Array<String> = arrayOf<String>()): String? {
+        return dumpStream(context, service, args) { it.readText() }
+    }
+
+    /**
+     * Streams the dump of [service] through [consumer] without buffering it in memory first.
+     * The consumer may stop reading early; the remaining output is discarded.
+     */
+    fun <T> dumpStream(context: Context, service: String, args: Array<String> = arrayOf<String>(), consumer: (BufferedReader) -> T): T? {
         if(!context.hasDumpPermission())
             return null
 
@@ -26,18 +34,16 @@ object DumpUtils {
             val serviceBinder = SystemServiceHelper.getSystemService(service)
             if (serviceBinder == null) {
                 Timber.wtf("Service '$service' does not exist")
+                readPipe.close()
+                writePipe.close()
                 return null
             }
             serviceBinder.dumpAsync(writePipe.fileDescriptor, args)
             writePipe.close()
 
-            val fd = FileInputStream(readPipe.fileDescriptor)
-            val reader = InputStreamReader(fd, "UTF-8")
-            val dump = reader.readText()
-            reader.close()
-            readPipe.close()
-            fd.close()
-            return dump
+            return ParcelFileDescriptor.AutoCloseInputStream(readPipe).use { fd ->
+                consumer(BufferedReader(InputStreamReader(fd, "UTF-8")))
+            }
         }
         catch (ex: IOException)
         {
@@ -51,4 +57,4 @@ object DumpUtils {
             return null
         }
     }
-}
\ No newline at end of file
+}
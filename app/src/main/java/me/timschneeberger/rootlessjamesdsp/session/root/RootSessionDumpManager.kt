@@ -3,6 +3,7 @@ package me.timschneeberger.rootlessjamesdsp.session.root
 import android.content.*
 import me.timschneeberger.rootlessjamesdsp.session.dump.DumpManager
 import me.timschneeberger.rootlessjamesdsp.session.dump.data.ISessionInfoDump
+import me.timschneeberger.rootlessjamesdsp.session.dump.data.ISessionPolicyInfoDump
 import me.timschneeberger.rootlessjamesdsp.session.shared.BaseSessionManager
 
 
@@ -19,7 +20,7 @@ class RootSessionDumpManager(context: Context) : BaseSessionManager(context)
         onDumpMethodChanged = callback
     }
 
-    override fun handleSessionDump(sessionDump: ISessionInfoDump?) {
+    override fun handleSessionDump(sessionDump: ISessionInfoDump?, policyDump: ISessionPolicyInfoDump?) {
         sessionDump?.let { onSessionDump?.invoke(it) }
     }
 
@@ -21,14 +21,12 @@ class RootlessSessionManager(context: Context) : BaseSessionManager(context)
         sessionPolicyDatabase.destroy()
     }
 
-    override fun handleSessionDump(sessionDump: ISessionInfoDump?) {
-        if(sessionDump is ISessionPolicyInfoDump) {
-            sessionPolicyDatabase.update(sessionDump)
-        }
-        else {
-            dumpManager.dumpCaptureAllowlistLog()?.let { sessionPolicyDatabase.update(it) }
-        }
+    override fun dumpSessionPolicy(sessionDump: ISessionInfoDump?): ISessionPolicyInfoDump? {
+        return sessionDump as? ISessionPolicyInfoDump ?: dumpManager.dumpCaptureAllowlistLog()
+    }
 
+    override fun handleSessionDump(sessionDump: ISessionInfoDump?, policyDump: ISessionPolicyInfoDump?) {
+        policyDump?.let { sessionPolicyDatabase.update(it) }
         sessionDump?.let { sessionDatabase.update(it) }
     }
 
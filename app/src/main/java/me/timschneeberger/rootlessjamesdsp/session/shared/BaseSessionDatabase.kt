@@ -5,14 +5,18 @@ import android.os.Process.myUid
 import me.timschneeberger.rootlessjamesdsp.model.AudioSessionDumpEntry
 import me.timschneeberger.rootlessjamesdsp.model.IEffectSession
 import me.timschneeberger.rootlessjamesdsp.session.dump.data.ISessionInfoDump
+import me.timschneeberger.rootlessjamesdsp.utils.PackageNameCache
+import org.koin.core.component.KoinComponent
+import org.koin.core.component.inject
 import timber.log.Timber
 
-abstract class BaseSessionDatabase(protected val context: Context) {
+abstract class BaseSessionDatabase(protected val context: Context) : KoinComponent {
 
     val sessionList = hashMapOf<Int, IEffectSession>()
     private var isDisposing = false
     private val changeCallbacks = mutableListOf<OnSessionChangeListener>()
     private var excludedUids = arrayOf<Int>()
+    private val packageNameCache: PackageNameCache by inject()
 
     protected open val excludedPackages = arrayOf(
         context.packageName
@@ -50,7 +54,7 @@ abstract class BaseSessionDatabase(protected val context: Context) {
         addedSessions.forEach next@ {
             val sid = it.key
             val data = it.value
-            val name = context.packageManager.getNameForUid(it.value.uid)
+            val name = packageNameCache.getNameForUid(it.value.uid)
             if (data.uid == myUid() || excludedPackages.contains(name)) {
                 Timber.d("Skipped session $sid due to package name $name ($data)")
                 return@next
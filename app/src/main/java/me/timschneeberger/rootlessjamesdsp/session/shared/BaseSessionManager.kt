@@ -20,22 +20,30 @@ import androidx.core.content.getSystemService
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import me.timschneeberger.rootlessjamesdsp.R
 import me.timschneeberger.rootlessjamesdsp.model.preference.SessionUpdateMode
 import me.timschneeberger.rootlessjamesdsp.service.NotificationListenerService
 import me.timschneeberger.rootlessjamesdsp.session.dump.DumpManager
 import me.timschneeberger.rootlessjamesdsp.session.dump.data.ISessionInfoDump
+import me.timschneeberger.rootlessjamesdsp.session.dump.data.ISessionPolicyInfoDump
 import me.timschneeberger.rootlessjamesdsp.utils.Constants
+import me.timschneeberger.rootlessjamesdsp.utils.PackageNameCache
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.registerLocalReceiver
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.unregisterLocalReceiver
 import me.timschneeberger.rootlessjamesdsp.utils.preferences.Preferences
 import org.koin.core.component.KoinComponent
+import org.koin.core.component.get
 import org.koin.core.component.inject
 import timber.log.Timber
+import java.util.concurrent.Executors
 
 
 abstract class BaseSessionManager(protected val context: Context) : DumpManager.OnDumpMethodChangeListener,
@@ -47,6 +55,8 @@ abstract class BaseSessionManager(protected val context: Context) : DumpManager.
 
     // Session dump manager
     protected val dumpManager: DumpManager by inject()
+    // Sessions derived from playback configurations; dumps are only used as fallback
+    private val playbackTracker = PlaybackSessionTracker(get<PackageNameCache>())
 
     // Session polling settings
     private var sessionUpdateMode: SessionUpdateMode = SessionUpdateMode.Listener
@@ -56,9 +66,11 @@ abstract class BaseSessionManager(protected val context: Context) : DumpManager.
         }
     private var pollingTimeout = 3000L
 
-    // Polling job
+    // Polling job; dumps are collected on a dedicated thread, results are handled on the main thread
     private val pollingMutex = Mutex()
-    private val pollingScope = CoroutineScope(Dispatchers.Main)
+    private val pollingDispatcher = Executors.newSingleThreadExecutor { Thread(it, "SessionPolling") }
+        .asCoroutineDispatcher()
+    private val pollingScope = CoroutineScope(pollingDispatcher)
     private var continuousPollingJob: Job? = null
 
     // Callbacks
@@ -68,7 +80,10 @@ abstract class BaseSessionManager(protected val context: Context) : DumpManager.
     private val preferencesListener: SharedPreferences.OnSharedPreferenceChangeListener
     private val preferences: Preferences.App by inject()
 
-    protected abstract fun handleSessionDump(sessionDump: ISessionInfoDump?)
+    /** Called on the polling thread; may perform additional dumps */
+    protected open fun dumpSessionPolicy(sessionDump: ISessionInfoDump?): ISessionPolicyInfoDump? = null
+    /** Called on the main thread */
+    protected abstract fun handleSessionDump(sessionDump: ISessionInfoDump?, policyDump: ISessionPolicyInfoDump?)
 
     init {
         Timber.d("Initializing SessionDumpManager")
@@ -78,8 +93,9 @@ abstract class BaseSessionManager(protected val context: Context) : DumpManager.
             override fun onPlaybackConfigChanged(configs: MutableList<AudioPlaybackConfiguration>?) {
                 super.onPlaybackConfigChanged(configs)
 
-                Timber.d("Playback config changed")
-                pollOnce(false)
+                pollingScope.launch {
+                    pollSessionDump(onlyIfChanged = true)
+                }
             }
         }
         audioManager.registerAudioPlaybackCallback(audioPlaybackCallback!!, Handler(Looper.getMainLooper()))
@@ -108,6 +124,8 @@ abstract class BaseSessionManager(protected val context: Context) : DumpManager.
         dumpManager.unregisterOnDumpMethodChangeListener(this)
 
         audioPlaybackCallback?.let { audioManager.unregisterAudioPlaybackCallback(it) }
+        pollingScope.cancel()
+        pollingDispatcher.close()
 
         sessionManager.removeOnActiveSessionsChangedListener(this)
         context.unregisterLocalReceiver(this)
@@ -160,9 +178,11 @@ abstract class BaseSessionManager(protected val context: Context) : DumpManager.
         when (sessionUpdateMode) {
             SessionUpdateMode.ContinuousPolling -> {
                 continuousPollingJob = pollingScope.launch {
-                    while(continuousPollingJob != null && continuousPollingJob?.isCancelled == false)
+                    // Runs on the polling thread; continuousPollingJob may not be assigned yet
+                    while(isActive)
                     {
-                        pollSessionDump()
+                        // Without complete playback configurations, only a dump can reveal changes
+                        pollSessionDump(onlyIfChanged = playbackTracker.dump != null)
                         delay(pollingTimeout)
                     }
                 }
@@ -173,7 +193,7 @@ abstract class BaseSessionManager(protected val context: Context) : DumpManager.
         }
     }
 
-    private suspend fun pollSessionDump(blocking: Boolean = true)
+    private suspend fun pollSessionDump(blocking: Boolean = true, onlyIfChanged: Boolean = false)
     {
         if(pollingMutex.isLocked && !blocking)
         {
@@ -181,7 +201,17 @@ abstract class BaseSessionManager(protected val context: Context) : DumpManager.
         }
 
         pollingMutex.withLock {
-            handleSessionDump(dumpManager.dumpSessions())
+            if(playbackTracker.update(audioManager.activePlaybackConfigurations))
+                Timber.d("Playback config changed")
+            else if(onlyIfChanged)
+                return@withLock
+
+            // Only dump if the playback configurations lack session ids or uids
+            val sessionDump = playbackTracker.dump ?: dumpManager.dumpSessions()
+            val policyDump = dumpSessionPolicy(sessionDump)
+            withContext(Dispatchers.Main) {
+                handleSessionDump(sessionDump, policyDump)
+            }
         }
     }
 
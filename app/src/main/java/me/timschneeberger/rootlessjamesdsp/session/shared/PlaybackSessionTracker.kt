@@ -0,0 +1,104 @@
+package me.timschneeberger.rootlessjamesdsp.session.shared
+
+import android.media.AudioAttributes
+import android.media.AudioPlaybackConfiguration
+import android.media.AudioPlaybackConfigurationHidden
+import dev.rikka.tools.refine.Refine
+import me.timschneeberger.rootlessjamesdsp.model.AudioSessionDumpEntry
+import me.timschneeberger.rootlessjamesdsp.session.dump.data.AudioPlaybackConfigurationDump
+import me.timschneeberger.rootlessjamesdsp.utils.PackageNameCache
+import timber.log.Timber
+
+/**
+ * Derives the session list directly from the active playback configurations.
+ * Keeps the last seen set of players so that callbacks which only change the player state
+ * (started, paused, ...) can be ignored.
+ */
+class PlaybackSessionTracker internal constructor(private val packageNameOf: (Int) -> String?) {
+    constructor(packageNameCache: PackageNameCache) : this(packageNameCache::getPackageName)
+
+    internal data class PlayerKey(val identity: Int, val sid: Int, val uid: Int, val usage: Int, val content: Int)
+
+    private var lastPlayers: Set<PlayerKey>? = null
+
+    /**
+     * Session dump built by the last call to [update].
+     * Null if any player did not expose its session id or uid; in that case a dumpsys-based method must be used.
+     */
+    var dump: AudioPlaybackConfigurationDump? = null
+        private set
+
+    /** Returns true if the players differ from the previous call */
+    fun update(configs: List<AudioPlaybackConfiguration>): Boolean =
+        updatePlayers(configs.map { it.toKey() }.toSet())
+
+    internal fun updatePlayers(players: Set<PlayerKey>): Boolean {
+        if(players == lastPlayers)
+            return false
+
+        lastPlayers = players
+        dump = if(players.any { it.sid <= 0 || it.uid < 0 }) {
+            Timber.d("Playback configurations are incomplete; dump required")
+            null
+        }
+        else {
+            val sessions = hashMapOf<Int, AudioSessionDumpEntry>()
+            players.forEach {
+                val pkg = packageNameOf(it.uid) ?: it.uid.toString()
+                sessions[it.sid] = AudioSessionDumpEntry(it.uid, pkg, usageToString(it.usage), contentTypeToString(it.content))
+            }
+            AudioPlaybackConfigurationDump(sessions)
+        }
+        return true
+    }
+
+    private fun AudioPlaybackConfiguration.toKey(): PlayerKey {
+        var sid = 0
+        var uid = -1
+        try {
+            // Both are reset by the system if we are not privileged enough (anonymized configurations)
+            val hidden = Refine.unsafeCast<AudioPlaybackConfigurationHidden>(this)
+            sid = hidden.sessionId
+            uid = hidden.clientUid
+        }
+        catch (ex: Throwable) {
+            // getSessionId() does not exist on older Android versions
+            Timber.v("Failed to read hidden playback configuration fields: ${ex.message}")
+        }
+
+        // hashCode() covers the player id, which stays valid in anonymized configurations
+        return PlayerKey(hashCode(), sid, uid, audioAttributes.usage, audioAttributes.contentType)
+    }
+
+    companion object {
+        @Suppress("DEPRECATION")
+        fun usageToString(usage: Int) = when(usage) {
+            AudioAttributes.USAGE_UNKNOWN -> "USAGE_UNKNOWN"
+            AudioAttributes.USAGE_MEDIA -> "USAGE_MEDIA"
+            AudioAttributes.USAGE_VOICE_COMMUNICATION -> "USAGE_VOICE_COMMUNICATION"
+            AudioAttributes.USAGE_VOICE_COMMUNICATION_SIGNALLING -> "USAGE_VOICE_COMMUNICATION_SIGNALLING"
+            AudioAttributes.USAGE_ALARM -> "USAGE_ALARM"
+            AudioAttributes.USAGE_NOTIFICATION -> "USAGE_NOTIFICATION"
+            AudioAttributes.USAGE_NOTIFICATION_RINGTONE -> "USAGE_NOTIFICATION_RINGTONE"
+            AudioAttributes.USAGE_NOTIFICATION_COMMUNICATION_REQUEST -> "USAGE_NOTIFICATION_COMMUNICATION_REQUEST"
+            AudioAttributes.USAGE_NOTIFICATION_COMMUNICATION_INSTANT -> "USAGE_NOTIFICATION_COMMUNICATION_INSTANT"
+            AudioAttributes.USAGE_NOTIFICATION_COMMUNICATION_DELAYED -> "USAGE_NOTIFICATION_COMMUNICATION_DELAYED"
+            AudioAttributes.USAGE_NOTIFICATION_EVENT -> "USAGE_NOTIFICATION_EVENT"
+            AudioAttributes.USAGE_ASSISTANCE_ACCESSIBILITY -> "USAGE_ASSISTANCE_ACCESSIBILITY"
+            AudioAttributes.USAGE_ASSISTANCE_NAVIGATION_GUIDANCE -> "USAGE_ASSISTANCE_NAVIGATION_GUIDANCE"
+            AudioAttributes.USAGE_ASSISTANCE_SONIFICATION -> "USAGE_ASSISTANCE_SONIFICATION"
+            AudioAttributes.USAGE_GAME -> "USAGE_GAME"
+            AudioAttributes.USAGE_ASSISTANT -> "USAGE_ASSISTANT"
+            else -> "USAGE_ID_$usage"
+        }
+
+        fun contentTypeToString(content: Int) = when(content) {
+            AudioAttributes.CONTENT_TYPE_UNKNOWN -> "CONTENT_TYPE_UNKNOWN"
+            AudioAttributes.CONTENT_TYPE_SPEECH -> "CONTENT_TYPE_SPEECH"
+            AudioAttributes.CONTENT_TYPE_MUSIC -> "CONTENT_TYPE_MUSIC"
+            AudioAttributes.CONTENT_TYPE_MOVIE -> "CONTENT_TYPE_MOVIE"
+            AudioAttributes.CONTENT_TYPE_SONIFICATION -> "CONTENT_TYPE_SONIFICATION"
+            else -> "CONTENT_TYPE_UNKNOWN"
+        }
+    }
+}
@@ -21,6 +21,9 @@ object Constants {
     const val PREF_STEREOWIDE = "dsp_stereowide"
     const val PREF_TUBE = "dsp_tube"
 
+    // Prefix of the DSP namespaces used by the separate effect chain of the rootless service
+    const val PREF_STREAM_GROUP_PREFIX = "stream_group_"
+
     // Default string values
     const val DEFAULT_CONVOLVER_ADVIMP = "-80;-100;0;0;0;0"
     const val DEFAULT_GEQ = "GraphicEQ: "
@@ -45,4 +48,5 @@ object Constants {
 
     // Intent extras
     const val EXTRA_SAMPLE_RATE = BuildConfig.APPLICATION_ID + ".extra.service.SAMPLE_RATE"
+    const val EXTRA_LIVEPROG_FORCE_RECOMPILE = BuildConfig.APPLICATION_ID + ".extra.service.LIVEPROG_FORCE_RECOMPILE"
 }
\ No newline at end of file
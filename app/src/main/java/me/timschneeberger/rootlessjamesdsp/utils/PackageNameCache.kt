@@ -0,0 +1,59 @@
+package me.timschneeberger.rootlessjamesdsp.utils
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import androidx.core.content.ContextCompat
+import me.timschneeberger.rootlessjamesdsp.utils.extensions.ContextExtensions.getPackageNameFromUid
+import timber.log.Timber
+
+/**
+ * Caches UID to package name lookups, which are binder calls into the package manager.
+ * Session detection resolves the same handful of UIDs on every update.
+ * Cleared whenever a package is installed or removed, since UIDs can be reassigned.
+ * Thread-safe.
+ */
+class PackageNameCache(val context: Context) : BroadcastReceiver() {
+
+    private val packageNames = hashMapOf<Int, String?>()
+    private val uidNames = hashMapOf<Int, String?>()
+
+    init {
+        ContextCompat.registerReceiver(context, this, IntentFilter().apply {
+            addAction(Intent.ACTION_PACKAGE_ADDED)
+            addAction(Intent.ACTION_PACKAGE_REMOVED)
+            addDataScheme("package")
+        }, ContextCompat.RECEIVER_NOT_EXPORTED)
+    }
+
+    /** Cached [getPackageNameFromUid] */
+    fun getPackageName(uid: Int): String? = synchronized(this) {
+        if(!packageNames.containsKey(uid))
+            packageNames[uid] = context.getPackageNameFromUid(uid)
+        packageNames[uid]
+    }
+
+    /** Cached PackageManager.getNameForUid */
+    fun getNameForUid(uid: Int): String? = synchronized(this) {
+        if(!uidNames.containsKey(uid))
+            uidNames[uid] = try {
+                context.packageManager.getNameForUid(uid)
+            }
+            catch (ex: Exception) {
+                Timber.w(ex)
+                null
+            }
+        uidNames[uid]
+    }
+
+    fun clear() = synchronized(this) {
+        packageNames.clear()
+        uidNames.clear()
+    }
+
+    override fun onReceive(context: Context?, intent: Intent?) {
+        Timber.d("Package added or removed; clearing package name cache")
+        clear()
+    }
+}
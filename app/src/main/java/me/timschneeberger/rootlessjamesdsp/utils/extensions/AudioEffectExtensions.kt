@@ -42,6 +42,12 @@ object AudioEffectExtensions {
         return safeAccess { this.setParameter(parameterCommit, 1.toShort()) }
     }
 
+    /**
+     * Uploads an impulse response in fixed-size partitions as expected by the effect module.
+     * A single transfer buffer is reused for all partitions; only the last one is zero-padded.
+     * All partitions are sent and committed like before, even if the module reports an error for one of them,
+     * since its return codes are not verified; the first error code is returned in that case.
+     */
     fun AudioEffectHidden?.setParameterImpulseResponseBuffer(
         parameterSend: Int,
         parameterCommit: Int,
@@ -51,33 +57,41 @@ object AudioEffectExtensions {
         this ?: return AudioEffect.ERROR_NO_INIT
 
         val frames = impulseResponse.size
-        val sendArray = FloatArray(MAX_IR_PARTITION_SIZE)
         val partitionCount = ceil(frames.toDouble() / MAX_IR_PARTITION_SIZE).toInt()
 
         // Send buffer info for module to allocate memory
         setParameterIntArray(PARAM_FLOAT_BUFFER_INFO, intArrayOf(frames, channels, 0, partitionCount))
 
-        // Fill final array with zero padding
-        val finalArray = FloatArray(partitionCount * MAX_IR_PARTITION_SIZE)
-
-        System.arraycopy(impulseResponse, 0, finalArray, 0, frames)
+        val transfer = ByteArray(MAX_IR_PARTITION_SIZE * Float.SIZE_BYTES)
+        val view = ByteBuffer.wrap(transfer).order(ByteOrder.nativeOrder()).asFloatBuffer()
+        var firstError = AudioEffect.SUCCESS
         for (i in 0 until partitionCount) {
-            System.arraycopy(finalArray, MAX_IR_PARTITION_SIZE * i, sendArray, 0, MAX_IR_PARTITION_SIZE)
-            setParameterFloatArray(parameterSend, sendArray)
+            val offset = MAX_IR_PARTITION_SIZE * i
+            val length = (frames - offset).coerceAtMost(MAX_IR_PARTITION_SIZE)
+
+            view.clear()
+            view.put(impulseResponse, offset, length)
+            // Zero padding for the last partition
+            if (length < MAX_IR_PARTITION_SIZE)
+                transfer.fill(0, length * Float.SIZE_BYTES)
+
+            val result = safeAccess { this.setParameter(parameterSend, transfer) }
+            if (result != AudioEffect.SUCCESS && firstError == AudioEffect.SUCCESS) {
+                Timber.e("setParameterImpulseResponseBuffer: partition $i/$partitionCount rejected; error code: $result")
+                firstError = result
+            }
         }
 
         // Commit buffer
-        return safeAccess { this.setParameter(parameterCommit, 1.toShort()) }
+        val result = safeAccess { this.setParameter(parameterCommit, 1.toShort()) }
+        return if (firstError != AudioEffect.SUCCESS) firstError else result
     }
 
     fun AudioEffectHidden?.setParameterFloatArray(parameter: Int, value: FloatArray): Int {
         this ?: return AudioEffect.ERROR_NO_INIT
 
         val result = ByteArray(value.size * 4)
-        val byteDataBuffer = ByteBuffer.wrap(result)
-        byteDataBuffer.order(ByteOrder.nativeOrder())
-        for (i in value.indices)
-            byteDataBuffer.putFloat(value[i])
+        ByteBuffer.wrap(result).order(ByteOrder.nativeOrder()).asFloatBuffer().put(value)
 
         return safeAccess { this.setParameter(parameter, result) }
     }
@@ -40,6 +40,15 @@ object Notifications {
     const val ID_BACKUP_COMPLETE = -502
     const val ID_RESTORE_COMPLETE = -504
 
+    /**
+     * Notification channel and ids used by the file library jobs.
+     */
+    private const val GROUP_FILE_LIBRARY = "group_file_library"
+    const val CHANNEL_RESAMPLE_PROGRESS = "resample_progress_channel"
+    const val ID_RESAMPLE_PROGRESS = -505
+    const val CHANNEL_RESAMPLE_COMPLETE = "resample_complete_channel"
+    const val ID_RESAMPLE_COMPLETE = -506
+
 
     private val deprecatedChannels = listOf(
         "JamesDSP",
@@ -67,6 +76,9 @@ object Notifications {
                 },
                 buildNotificationChannelGroup(GROUP_BACKUP_RESTORE) {
                     setName(context.getString(R.string.notification_group_backup))
+                },
+                buildNotificationChannelGroup(GROUP_FILE_LIBRARY) {
+                    setName(context.getString(R.string.notification_group_file_library))
                 }
             ),
         )
@@ -90,6 +102,17 @@ object Notifications {
                     setGroup(GROUP_BACKUP_RESTORE)
                     setShowBadge(false)
                     setSound(null, null)
+                },
+                buildNotificationChannel(CHANNEL_RESAMPLE_PROGRESS, IMPORTANCE_LOW) {
+                    setName(context.getString(R.string.notification_channel_resample_progress))
+                    setGroup(GROUP_FILE_LIBRARY)
+                    setShowBadge(false)
+                },
+                buildNotificationChannel(CHANNEL_RESAMPLE_COMPLETE, IMPORTANCE_DEFAULT) {
+                    setName(context.getString(R.string.notification_channel_resample_complete))
+                    setGroup(GROUP_FILE_LIBRARY)
+                    setShowBadge(false)
+                    setSound(null, null)
                 }
             )
         )
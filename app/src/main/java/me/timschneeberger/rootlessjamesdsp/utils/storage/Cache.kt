@@ -18,6 +18,7 @@ import java.io.File
 import java.util.*
 import kotlin.concurrent.thread
 import kotlin.time.Duration
+import kotlin.time.Duration.Companion.days
 import kotlin.time.Duration.Companion.hours
 
 // Based on https://github.com/Iamlooker/Droid-ify/blob/main/core/common/src/main/java/com/looker/core/common/cache/Cache.kt
@@ -26,6 +27,7 @@ object Cache {
 
     private const val RELEASE_DIR = "releases"
     private const val TEMP_DIR = "temporary"
+    private const val IMPULSE_RESPONSE_DIR = "impulse_responses"
 
     private fun ensureCacheDir(context: Context, name: String): File {
         return File(
@@ -87,12 +89,17 @@ object Cache {
         return File(ensureCacheDir(context, TEMP_DIR), UUID.randomUUID().toString())
     }
 
+    fun getImpulseResponseDir(context: Context): File {
+        return ensureCacheDir(context, IMPULSE_RESPONSE_DIR)
+    }
+
     fun cleanupNow(context: Context) {
         thread {
             cleanup(
                 context,
                 Pair(RELEASE_DIR, Duration.ZERO),
-                Pair(TEMP_DIR, Duration.ZERO)
+                Pair(TEMP_DIR, Duration.ZERO),
+                Pair(IMPULSE_RESPONSE_DIR, Duration.ZERO)
             )
         }
     }
@@ -102,7 +109,8 @@ object Cache {
             cleanup(
                 context,
                 Pair(RELEASE_DIR, 24.hours),
-                Pair(TEMP_DIR, 1.hours)
+                Pair(TEMP_DIR, 1.hours),
+                Pair(IMPULSE_RESPONSE_DIR, 30.days)
             )
         }
     }
@@ -0,0 +1,185 @@
+package me.timschneeberger.rootlessjamesdsp.utils.storage
+
+import android.app.NotificationManager
+import android.content.Context
+import android.graphics.BitmapFactory
+import androidx.core.app.NotificationCompat
+import androidx.core.content.getSystemService
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import me.timschneeberger.rootlessjamesdsp.R
+import me.timschneeberger.rootlessjamesdsp.interop.JdspImpResToolbox
+import me.timschneeberger.rootlessjamesdsp.preference.FileLibraryPreference
+import me.timschneeberger.rootlessjamesdsp.utils.notifications.Notifications
+import timber.log.Timber
+import java.io.File
+
+/**
+ * Resamples every impulse response in the Convolver library (bundled and user-imported files)
+ * to one or more target sample rates, with one native resampler per core.
+ * Files that have already been converted are skipped, so the job can be re-run cheaply;
+ * outputs are only created once complete, so an interrupted run never leaves a truncated file behind.
+ * Files that are already at a target rate are not copied.
+ */
+class ConvolverResampleJob(private val context: Context, workerParams: WorkerParameters) :
+    CoroutineWorker(context, workerParams) {
+
+    private val notificationManager = context.getSystemService<NotificationManager>()
+    private val progressNotificationBuilder = NotificationCompat.Builder(context, Notifications.CHANNEL_RESAMPLE_PROGRESS).apply {
+        setLargeIcon(BitmapFactory.decodeResource(context.resources, R.mipmap.ic_dsp_launcher))
+        setSmallIcon(R.drawable.ic_tune_vertical_variant_24dp)
+        setContentTitle(context.getString(R.string.filelibrary_resample_all_progress))
+        setAutoCancel(false)
+        setOngoing(true)
+        setOnlyAlertOnce(true)
+    }
+
+    override suspend fun doWork(): Result {
+        val rates = inputData.getIntArray(TARGET_RATES_KEY)?.filter { it > 0 }?.distinct()
+        if (rates.isNullOrEmpty()) {
+            Timber.e("No valid target sample rates")
+            return Result.failure()
+        }
+
+        val directory = File(context.getExternalFilesDir(null), "Convolver")
+        val sources = directory.listFiles()
+            ?.filter { it.isFile && FileLibraryPreference.hasIrsExtension(it.name) && !isResampledOutput(directory, it.name, rates) }
+            ?: emptyList()
+        val tasks = sources.flatMap { file -> rates.map { rate -> file to rate } }
+            .filterNot { (file, rate) -> File(directory, outputName(file.name, rate)).exists() }
+
+        Timber.d("Resampling ${tasks.size} impulse responses to $rates (${sources.size} sources)")
+        val total = tasks.size
+        var done = 0
+        var failed = 0
+        var skipped = 0
+        val progressMutex = Mutex()
+
+        try {
+            updateProgress(0, total)
+
+            val permits = Semaphore(Runtime.getRuntime().availableProcessors().coerceAtLeast(1))
+            coroutineScope {
+                tasks.map { (file, rate) ->
+                    async(Dispatchers.IO) {
+                        val result = permits.withPermit { resample(file, rate) }
+                        progressMutex.withLock {
+                            done++
+                            when (result) {
+                                ResampleResult.Failed -> failed++
+                                ResampleResult.Skipped -> skipped++
+                                ResampleResult.Converted -> {}
+                            }
+                            updateProgress(done, total)
+                        }
+                    }
+                }.awaitAll()
+            }
+        }
+        finally {
+            // Also runs if the work is cancelled; the ongoing notification can't be dismissed by the user
+            notificationManager?.cancel(Notifications.ID_RESAMPLE_PROGRESS)
+        }
+
+        showComplete(total - failed - skipped, failed)
+        return Result.success(workDataOf(
+            PROGRESS_DONE_KEY to done, PROGRESS_TOTAL_KEY to total, FAILED_KEY to failed, SKIPPED_KEY to skipped
+        ))
+    }
+
+    private enum class ResampleResult { Converted, Skipped, Failed }
+
+    private fun resample(file: File, rate: Int): ResampleResult {
+        return try {
+            val newName = JdspImpResToolbox.OfflineAudioResample(
+                (file.absoluteFile.parentFile?.absolutePath + "/"),
+                file.name,
+                rate
+            )
+            when (newName) {
+                "Invalid" -> {
+                    Timber.e("Failed to resample ${file.name} to ${rate}Hz")
+                    ResampleResult.Failed
+                }
+                // The source itself is returned if it is already at the target rate
+                file.absolutePath -> ResampleResult.Skipped
+                else -> ResampleResult.Converted
+            }
+        }
+        catch (ex: Exception) {
+            Timber.e(ex)
+            ResampleResult.Failed
+        }
+    }
+
+    private suspend fun updateProgress(done: Int, total: Int) {
+        setProgress(workDataOf(PROGRESS_DONE_KEY to done, PROGRESS_TOTAL_KEY to total))
+        withContext(Dispatchers.Main) {
+            with(progressNotificationBuilder) {
+                setContentText("$done / $total")
+                setProgress(total, done, false)
+                notificationManager?.notify(Notifications.ID_RESAMPLE_PROGRESS, build())
+            }
+        }
+    }
+
+    private fun showComplete(converted: Int, failed: Int) {
+        NotificationCompat.Builder(context, Notifications.CHANNEL_RESAMPLE_COMPLETE).apply {
+            setLargeIcon(BitmapFactory.decodeResource(context.resources, R.mipmap.ic_dsp_launcher))
+            setSmallIcon(R.drawable.ic_tune_vertical_variant_24dp)
+            setContentTitle(context.getString(R.string.filelibrary_resample_all_complete, converted))
+            if (failed > 0)
+                setContentText(context.getString(R.string.filelibrary_resample_all_failed, failed))
+            notificationManager?.notify(Notifications.ID_RESAMPLE_COMPLETE, build())
+        }
+    }
+
+    companion object {
+        private const val TAG = "ConvolverResample"
+
+        private const val TARGET_RATES_KEY = "target_rates"
+        const val PROGRESS_DONE_KEY = "done"
+        const val PROGRESS_TOTAL_KEY = "total"
+        const val FAILED_KEY = "failed"
+        const val SKIPPED_KEY = "skipped"
+
+        /** Naming scheme used by [JdspImpResToolbox.OfflineAudioResample] */
+        fun outputName(name: String, rate: Int) = "${rate}_$name"
+
+        /**
+         * True if [name] was produced by this job for one of [rates], i.e. the file it was resampled from still exists.
+         * User files that merely start with digits and an underscore are not skipped.
+         */
+        internal fun isResampledOutput(directory: File, name: String, rates: Collection<Int>) = rates.any { rate ->
+            val prefix = outputName("", rate)
+            name.length > prefix.length && name.startsWith(prefix) && File(directory, name.substring(prefix.length)).isFile
+        }
+
+        /** Returns the copy of [file] resampled to [rate] by this job if it exists, otherwise [file] itself */
+        fun preferResampled(file: File, rate: Int): File {
+            val resampled = File(file.parentFile, outputName(file.name, rate))
+            return if (resampled.isFile) resampled else file
+        }
+
+        fun startNow(context: Context, targetRates: IntArray) {
+            val request = OneTimeWorkRequestBuilder<ConvolverResampleJob>()
+                .addTag(TAG)
+                .setInputData(workDataOf(TARGET_RATES_KEY to targetRates))
+                .build()
+            WorkManager.getInstance(context).enqueueUniqueWork(TAG, ExistingWorkPolicy.KEEP, request)
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package me.timschneeberger.rootlessjamesdsp.utils.storage
+
+import android.content.Context
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Content-addressed on-disk cache of decoded, resampled and optionally minimum-phase transformed
+ * impulse responses. Entries are raw float blobs that are memory-mapped on lookup, so switching
+ * sample rates does not require decoding and resampling the source file again.
+ */
+object ImpulseResponseCache {
+    private const val MAGIC = 0x4A444952 // "JDIR"
+    private const val VERSION = 2
+    private const val HEADER_INTS = 6
+    private const val HEADER_SIZE = HEADER_INTS * Int.SIZE_BYTES
+    private const val MAX_SIZE_BYTES = 128L * 1024 * 1024
+
+    // Content hash of each source file, valid as long as its modification time and size are unchanged
+    private data class SourceState(val lastModified: Long, val length: Long, val hash: String)
+    private val contentHashes = ConcurrentHashMap<String, SourceState>()
+
+    /**
+     * Returns the processed impulse response for [file] and fills [info] like
+     * [me.timschneeberger.rootlessjamesdsp.interop.JdspImpResToolbox.ReadImpulseResponseToFloat] does.
+     * On a cache miss, [loader] is invoked and a successful result is stored for the next lookup.
+     */
+    fun getOrLoad(
+        context: Context,
+        file: File,
+        sampleRate: Int,
+        convMode: Int,
+        advParam: IntArray,
+        info: IntArray,
+        loader: () -> FloatArray?
+    ): FloatArray? = getOrLoad(Cache.getImpulseResponseDir(context), file, sampleRate, convMode, advParam, info, loader)
+
+    internal fun getOrLoad(
+        dir: File,
+        file: File,
+        sampleRate: Int,
+        convMode: Int,
+        advParam: IntArray,
+        info: IntArray,
+        loader: () -> FloatArray?
+    ): FloatArray? {
+        val entry = try {
+            File(dir, key(file, sampleRate, convMode, advParam))
+        }
+        catch (ex: IOException) {
+            Timber.w(ex, "Failed to hash impulse response")
+            return loader()
+        }
+
+        read(entry, info)?.let {
+            Timber.d("Impulse response cache hit for ${file.name} @ ${sampleRate}Hz")
+            entry.setLastModified(System.currentTimeMillis())
+            return it
+        }
+
+        val data = loader() ?: return null
+        if (info[1] > 0) {
+            write(entry, data, info)
+            trim(entry)
+        }
+        return data
+    }
+
+    private fun key(file: File, sampleRate: Int, convMode: Int, advParam: IntArray): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update("${contentHash(file)};$sampleRate;$convMode;${advParam.joinToString(";")};$VERSION".toByteArray())
+        return digest.digest().toHex()
+    }
+
+    private fun contentHash(file: File): String {
+        val lastModified = file.lastModified()
+        val length = file.length()
+        contentHashes[file.absolutePath]
+            ?.takeIf { it.lastModified == lastModified && it.length == length }
+            ?.let { return it.hash }
+
+        val digest = MessageDigest.getInstance("SHA-256")
+        file.inputStream().use { stream ->
+            val buffer = ByteArray(64 * 1024)
+            while (true) {
+                val read = stream.read(buffer)
+                if (read < 0)
+                    break
+                digest.update(buffer, 0, read)
+            }
+        }
+        return digest.digest().toHex().also {
+            contentHashes[file.absolutePath] = SourceState(lastModified, length, it)
+        }
+    }
+
+    private fun ByteArray.toHex() = joinToString("") { "%02x".format(it) }
+
+    private fun read(entry: File, info: IntArray): FloatArray? {
+        if (!entry.exists())
+            return null
+
+        return try {
+            RandomAccessFile(entry, "r").use { raf ->
+                val map = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+                    .order(ByteOrder.nativeOrder())
+                if (map.remaining() < HEADER_SIZE || map.int != MAGIC || map.int != VERSION)
+                    throw IOException("Invalid header")
+
+                for (i in 0 until 4)
+                    info[i] = map.int
+                if (map.remaining() % Float.SIZE_BYTES != 0)
+                    throw IOException("Truncated entry")
+
+                val samples = map.remaining() / Float.SIZE_BYTES
+                FloatArray(samples).also { map.asFloatBuffer().get(it) }
+            }
+        }
+        catch (ex: IOException) {
+            Timber.w(ex, "Dropping unreadable impulse response cache entry ${entry.name}")
+            entry.delete()
+            null
+        }
+    }
+
+    private fun write(entry: File, data: FloatArray, info: IntArray) {
+        // Unique per writer; concurrent loads of the same key must not share a temporary file
+        val temp = try {
+            File.createTempFile("${entry.name}.", ".tmp", entry.parentFile)
+        }
+        catch (ex: IOException) {
+            Timber.w(ex, "Failed to create temporary impulse response cache entry")
+            return
+        }
+
+        try {
+            RandomAccessFile(temp, "rw").use { raf ->
+                val size = HEADER_SIZE + data.size.toLong() * Float.SIZE_BYTES
+                raf.setLength(size)
+                // order() returns a plain ByteBuffer; keep the MappedByteBuffer reference for force()
+                val map = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+                map.order(ByteOrder.nativeOrder())
+                map.putInt(MAGIC)
+                map.putInt(VERSION)
+                map.putInt(info[0])
+                map.putInt(info[1])
+                map.putInt(info[2])
+                map.putInt(info[3])
+                map.asFloatBuffer().put(data)
+                map.force()
+            }
+
+            // Publish atomically so readers never see a partially written entry
+            if (!temp.renameTo(entry))
+                throw IOException("Failed to rename ${temp.name}")
+        }
+        catch (ex: IOException) {
+            Timber.w(ex, "Failed to store impulse response cache entry")
+            temp.delete()
+        }
+    }
+
+    /** Evicts the least recently used entries above the size limit; never evicts [current] */
+    private fun trim(current: File) {
+        val files = current.parentFile?.listFiles()
+            ?.filter { it != current }
+            ?.sortedByDescending { it.lastModified() } ?: return
+        var total = current.length()
+        files.forEach {
+            total += it.length()
+            if (total > MAX_SIZE_BYTES)
+                it.delete()
+        }
+    }
+}
@@ -13,10 +13,14 @@ import android.util.TypedValue
 import android.view.View
 import androidx.core.content.withStyledAttributes
 import androidx.core.os.bundleOf
+import me.timschneeberger.rootlessjamesdsp.interop.EqResponseContext
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.CompatExtensions.getParcelableAs
 import me.timschneeberger.rootlessjamesdsp.utils.extensions.prettyNumberFormat
 import timber.log.Timber
 import java.util.Locale
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.math.abs
 import kotlin.math.exp
 import kotlin.math.ln
@@ -57,6 +61,14 @@ abstract class BaseEqualizerSurface(
     private val precomputeCurveXAxis = MutableList(nPts) { 0.0f }
     private var precomputeFreqAxis = FloatArray(2)
 
+    // The curve is only recomputed when its inputs change, on the shared curve thread.
+    // responseContext and workerResponse are only touched by that thread while a job is pending.
+    private var responseContext: EqResponseContext? = null
+    private var workerResponse = FloatArray(nPts)
+    private val curveVersion = AtomicInteger(0)
+    private val curveJobPending = AtomicBoolean(false)
+    private var pathDirty = true
+
     fun addElement(org: FloatArray, added: Float): FloatArray {
         val result = org.copyOf(org.size + 1)
         result[org.size] = added
@@ -111,11 +123,56 @@ abstract class BaseEqualizerSurface(
     override fun onRestoreInstanceState(state: Parcelable?) {
         super.onRestoreInstanceState((state as Bundle).getParcelableAs("super"))
         mLevels = state.getDoubleArray("levels") ?: DoubleArray(bandsNum)
+        invalidateCurve()
     }
 
     override fun onAttachedToWindow() {
         super.onAttachedToWindow()
         setLayerType(LAYER_TYPE_HARDWARE, null)
+        invalidateCurve()
+    }
+
+    override fun onDetachedFromWindow() {
+        super.onDetachedFromWindow()
+        // Runs after any pending curve job
+        curveExecutor.execute {
+            responseContext?.close()
+            responseContext = null
+        }
+    }
+
+    /**
+     * Schedules a recomputation of the response curve; must be called whenever an input of [createCurveJob] changes.
+     * Requests made while a job is running are coalesced into one follow-up job.
+     */
+    protected fun invalidateCurve() {
+        curveVersion.incrementAndGet()
+        if (curveJobPending.compareAndSet(false, true))
+            scheduleCurve()
+    }
+
+    // Called on the UI thread; the job only works on the inputs captured here
+    private fun scheduleCurve() {
+        val version = curveVersion.get()
+        val resolution = nPts
+        val job = createCurveJob(frequencyScale, mLevels.copyOf())
+        curveExecutor.execute {
+            val ctx = responseContext ?: EqResponseContext().also { responseContext = it }
+            job.compute(ctx, resolution, displayFreq, workerResponse)
+
+            post {
+                // Swap in the latest result; the worker is idle until the next job is scheduled
+                val previous = response
+                response = workerResponse
+                workerResponse = previous
+                pathDirty = true
+                invalidate()
+
+                curveJobPending.set(false)
+                if (curveVersion.get() != version && curveJobPending.compareAndSet(false, true))
+                    scheduleCurve()
+            }
+        }
     }
 
     override fun onLayout(changed: Boolean, left: Int, top: Int, right: Int, bottom: Int) {
@@ -128,22 +185,27 @@ abstract class BaseEqualizerSurface(
             intArrayOf(getColor(android.R.attr.colorAccent), getColor(android.R.color.transparent))
         val responsePositions = floatArrayOf(0.0f, 1f)
         mFrequencyResponseBg.shader = getLinearGradient(mHeight, responseColors, responsePositions)
+        pathDirty = true
     }
 
     private val freqResponse = Path()
     private val freqResponseBg = Path()
 
-    abstract fun computeCurve(freqs: DoubleArray, gains: DoubleArray, resolution: Int, dispFreq: DoubleArray, response: FloatArray)
+    /** Computes the response curve on the curve thread */
+    fun interface CurveJob {
+        fun compute(responseContext: EqResponseContext, resolution: Int, dispFreq: DoubleArray, response: FloatArray)
+    }
+
+    /** Captures all inputs of the response curve on the UI thread; the returned job must not read view state */
+    protected abstract fun createCurveJob(freqs: DoubleArray, gains: DoubleArray): CurveJob
     abstract val frequencyScale: DoubleArray
 
 
 
-    override fun onDraw(canvas: Canvas) {
+    private fun rebuildPaths() {
         freqResponse.rewind()
         freqResponseBg.rewind()
 
-        computeCurve(frequencyScale, mLevels, nPts, displayFreq, response)
-
         var x: Float
         var y: Float
         for (i in 0 until nPts) {
@@ -155,6 +217,22 @@ abstract class BaseEqualizerSurface(
             else freqResponse.lineTo(x, y)
         }
 
+        with(freqResponseBg) {
+            addPath(freqResponse)
+            offset(0f, -4f)
+            lineTo(mWidth, mHeight)
+            lineTo(0f, mHeight)
+            close()
+        }
+        pathDirty = false
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        if (pathDirty)
+            rebuildPaths()
+
+        var x: Float
+        var y: Float
         for (i in mLevels.indices) {
             x = projectX(frequencyScale[i]) * mWidth
             y = projectY(mLevels[i].toFloat()) * mHeight
@@ -177,13 +255,6 @@ abstract class BaseEqualizerSurface(
             dB += horizLineInterval
         }
 
-        with(freqResponseBg) {
-            addPath(freqResponse)
-            offset(0f, -4f)
-            lineTo(mWidth, mHeight)
-            lineTo(0f, mHeight)
-            close()
-        }
         canvas.drawPath(freqResponseBg, mFrequencyResponseBg)
         canvas.drawPath(freqResponse, mFrequencyResponseHighlight)
     }
@@ -238,6 +309,12 @@ abstract class BaseEqualizerSurface(
         }
 
         mLevels[i] = value
+        invalidateCurve()
         postInvalidate()
     }
+
+    companion object {
+        // Shared by all surfaces; each surface has its own response context
+        private val curveExecutor = Executors.newSingleThreadExecutor { Thread(it, "EqualizerCurve") }
+    }
 }
\ No newline at end of file
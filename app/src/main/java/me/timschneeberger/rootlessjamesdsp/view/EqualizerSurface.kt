@@ -13,29 +13,28 @@ class EqualizerSurface(context: Context?, attrs: AttributeSet?) : BaseEqualizerS
     var mode: Mode = Mode.Fir
         set(value) {
             field = value
-            invalidate()
+            invalidateCurve()
         }
     var iirOrder: Int = 4
         set(value) {
             field = value
-            invalidate()
+            invalidateCurve()
         }
 
     private val cplxRe = DoubleArray(nPts)
     private val cplxIm = DoubleArray(nPts)
 
-    override fun computeCurve(
-        freqs: DoubleArray,
-        gains: DoubleArray,
-        resolution: Int,
-        dispFreq: DoubleArray,
-        response: FloatArray
-    ) {
-        when(mode) {
-            Mode.Fir -> JdspImpResToolbox.ComputeEqResponse(15, freqs, gains, 1, resolution, dispFreq, response)
-            Mode.Iir -> {
-                JdspImpResToolbox.ComputeIIREqualizerCplx(48000, iirOrder, freqs, gains, resolution, dispFreq, cplxRe, cplxIm)
-                JdspImpResToolbox.ComputeIIREqualizerResponse(nPts, cplxRe, cplxIm, response)
+    // cplxRe and cplxIm are only used by the curve thread
+    override fun createCurveJob(freqs: DoubleArray, gains: DoubleArray): CurveJob {
+        val mode = mode
+        val iirOrder = iirOrder
+        return CurveJob { responseContext, resolution, dispFreq, response ->
+            when(mode) {
+                Mode.Fir -> responseContext.computeEqResponse(freqs, gains, 1, resolution, dispFreq, response)
+                Mode.Iir -> {
+                    responseContext.computeIIREqualizerCplxIncremental(48000, iirOrder, freqs, gains, resolution, dispFreq, cplxRe, cplxIm)
+                    JdspImpResToolbox.ComputeIIREqualizerResponse(resolution, cplxRe, cplxIm, response)
+                }
             }
         }
     }
@@ -0,0 +1,95 @@
+package me.timschneeberger.rootlessjamesdsp.interop
+
+import me.timschneeberger.rootlessjamesdsp.interop.NeutralStages.GAIN_EPSILON
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class NeutralStagesTest {
+    // Multi-band EQ layout: 15 frequencies followed by 15 gains
+    private fun eqBands(vararg gains: Pair<Int, Double>) = DoubleArray(30) { if (it < 15) 25.0 * (it + 1) else 0.0 }.apply {
+        gains.forEach { (band, gain) -> this[15 + band] = gain }
+    }
+
+    @Test
+    fun allZeroBands_areNeutral() {
+        assertTrue(NeutralStages.areGainsNeutral(eqBands(), 15, 30))
+    }
+
+    @Test
+    fun frequencies_areIgnored() {
+        // Only the gain half of the array may be checked; frequencies are never zero
+        assertFalse(NeutralStages.areGainsNeutral(eqBands(), 0, 30))
+    }
+
+    @Test
+    fun singleBandAtEpsilon_isNotNeutral() {
+        assertFalse(NeutralStages.areGainsNeutral(eqBands(7 to GAIN_EPSILON), 15, 30))
+        assertFalse(NeutralStages.areGainsNeutral(eqBands(7 to -GAIN_EPSILON), 15, 30))
+    }
+
+    @Test
+    fun singleBandBelowEpsilon_isNeutral() {
+        assertTrue(NeutralStages.areGainsNeutral(eqBands(0 to GAIN_EPSILON / 2), 15, 30))
+        assertTrue(NeutralStages.areGainsNeutral(eqBands(14 to -GAIN_EPSILON / 2), 15, 30))
+    }
+
+    @Test
+    fun lastBand_isChecked() {
+        assertFalse(NeutralStages.areGainsNeutral(eqBands(14 to 0.5), 15, 30))
+    }
+
+    @Test
+    fun nanGain_isNotNeutral() {
+        assertFalse(NeutralStages.areGainsNeutral(eqBands(3 to Double.NaN), 15, 30))
+    }
+
+    @Test
+    fun compander_onlyChecksGainRange() {
+        // Compander layout: 7 frequencies followed by 7 gains
+        val bands = doubleArrayOf(95.0, 200.0, 400.0, 800.0, 1600.0, 3400.0, 7500.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0)
+        assertTrue(NeutralStages.areGainsNeutral(bands, 7, 14))
+        bands[13] = -GAIN_EPSILON
+        assertFalse(NeutralStages.areGainsNeutral(bands, 7, 14))
+    }
+
+    @Test
+    fun graphicEq_flat_isNeutral() {
+        assertTrue(NeutralStages.isGraphicEqNeutral("GraphicEQ: 25 0; 40 0.0; 1000 -0; 16000 0"))
+    }
+
+    @Test
+    fun graphicEq_withoutBands_isNeutral() {
+        assertTrue(NeutralStages.isGraphicEqNeutral("GraphicEQ: "))
+        assertTrue(NeutralStages.isGraphicEqNeutral("GraphicEQ: 25 0; "))
+    }
+
+    @Test
+    fun graphicEq_singleBandAtEpsilon_isNotNeutral() {
+        assertFalse(NeutralStages.isGraphicEqNeutral("GraphicEQ: 25 0; 1000 $GAIN_EPSILON; 16000 0"))
+        assertFalse(NeutralStages.isGraphicEqNeutral("GraphicEQ: 25 0; 1000 -$GAIN_EPSILON; 16000 0"))
+    }
+
+    @Test
+    fun graphicEq_singleBandBelowEpsilon_isNeutral() {
+        assertTrue(NeutralStages.isGraphicEqNeutral("GraphicEQ: 25 0; 1000 0.0001; 16000 -0.0005"))
+    }
+
+    @Test
+    fun graphicEq_extraWhitespace_isParsed() {
+        assertTrue(NeutralStages.isGraphicEqNeutral("GraphicEQ:   25\t0 ;  1000    0  "))
+        assertFalse(NeutralStages.isGraphicEqNeutral("GraphicEQ:   25\t0 ;  1000    3  "))
+    }
+
+    @Test
+    fun graphicEq_malformedBand_isNotNeutral() {
+        assertFalse(NeutralStages.isGraphicEqNeutral("GraphicEQ: 25 0; 1000 abc; 16000 0"))
+        assertFalse(NeutralStages.isGraphicEqNeutral("GraphicEQ: 25 0; 1000 0,0"))
+    }
+
+    @Test
+    fun graphicEq_bandWithoutGain_isNotNeutral() {
+        // A lone number is read as the gain, so a truncated band keeps the stage enabled
+        assertFalse(NeutralStages.isGraphicEqNeutral("GraphicEQ: 25 0; 1000"))
+    }
+}
@@ -0,0 +1,213 @@
+package me.timschneeberger.rootlessjamesdsp.interop
+
+import android.content.SharedPreferences
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class PreferenceCacheTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val prefs = hashMapOf<String, FakeSharedPreferences>()
+    private lateinit var cache: PreferenceCache
+
+    @Before
+    fun setUp() {
+        cache = PreferenceCache(
+            resolveKey = { "key_$it" },
+            openPreferences = { prefs.getOrPut(it) { FakeSharedPreferences() } },
+            backingFile = { File(folder.root, "$it.xml") },
+            onValueChanged = { _, _ -> }
+        )
+    }
+
+    private fun prefs(namespace: String) = prefs.getOrPut(namespace) { FakeSharedPreferences() }
+
+    private fun readGain(namespace: String = EQ): Float {
+        cache.select(namespace)
+        return cache.get(GAIN, 0f)
+    }
+
+    private fun syncAndCommit(namespace: String = EQ) {
+        readGain(namespace)
+        cache.markChangesAsCommitted()
+    }
+
+    @Test
+    fun firstSelect_readsAndReportsNamespace() {
+        prefs(EQ).edit().putFloat("key_$GAIN", 3f).commit()
+
+        assertEquals(3f, readGain(), 0f)
+        assertEquals(listOf(EQ), cache.changedNamespaces)
+    }
+
+    @Test
+    fun unchangedNamespace_isServedFromCache() {
+        prefs(EQ).edit().putFloat("key_$GAIN", 3f).commit()
+        syncAndCommit()
+
+        val reads = prefs(EQ).reads
+        assertEquals(3f, readGain(), 0f)
+        assertEquals(reads, prefs(EQ).reads)
+        assertTrue(cache.changedNamespaces.isEmpty())
+    }
+
+    @Test
+    fun listenerMarksNamespaceDirty() {
+        syncAndCommit()
+
+        prefs(EQ).edit().putFloat("key_$GAIN", -2f).commit()
+
+        assertEquals(-2f, readGain(), 0f)
+        assertEquals(listOf(EQ), cache.changedNamespaces)
+    }
+
+    @Test
+    fun dirtyNamespaceWithSameValue_isNotReportedAsChanged() {
+        prefs(EQ).edit().putFloat("key_$GAIN", 1f).commit()
+        syncAndCommit()
+
+        prefs(EQ).edit().putFloat("key_$GAIN", 1f).commit()
+
+        assertEquals(1f, readGain(), 0f)
+        assertTrue(cache.changedNamespaces.isEmpty())
+    }
+
+    @Test
+    fun dirtyFlag_isConsumedBySync() {
+        syncAndCommit()
+        prefs(EQ).edit().putFloat("key_$GAIN", 4f).commit()
+        syncAndCommit()
+
+        val reads = prefs(EQ).reads
+        readGain()
+        assertEquals(reads, prefs(EQ).reads)
+    }
+
+    @Test
+    fun dirtyFlag_isScopedToItsNamespace() {
+        syncAndCommit(EQ)
+        syncAndCommit(BASS)
+
+        prefs(BASS).edit().putFloat("key_$GAIN", 6f).commit()
+
+        val eqReads = prefs(EQ).reads
+        readGain(EQ)
+        assertEquals(eqReads, prefs(EQ).reads)
+        assertEquals(6f, readGain(BASS), 0f)
+        assertEquals(listOf(BASS), cache.changedNamespaces)
+    }
+
+    @Test
+    fun fileReplacedOnDisk_isDetectedWithoutListener() {
+        val file = File(folder.root, "$EQ.xml").apply { writeText("<map />") }
+        syncAndCommit()
+
+        // Another process replaced the file; no change listener fires in this process
+        prefs(EQ).putSilently("key_$GAIN", 5f)
+        file.writeText("<map><float name=\"key_$GAIN\" value=\"5.0\" /></map>")
+
+        assertEquals(5f, readGain(), 0f)
+        assertEquals(listOf(EQ), cache.changedNamespaces)
+    }
+
+    @Test
+    fun unchangedFileWithoutListener_keepsCachedValue() {
+        File(folder.root, "$EQ.xml").writeText("<map />")
+        syncAndCommit()
+
+        prefs(EQ).putSilently("key_$GAIN", 5f)
+
+        assertEquals(0f, readGain(), 0f)
+        assertFalse(cache.changedNamespaces.contains(EQ))
+    }
+
+    @Test
+    fun clear_forcesFullRead() {
+        prefs(EQ).edit().putFloat("key_$GAIN", 2f).commit()
+        syncAndCommit()
+
+        cache.clear()
+        val reads = prefs(EQ).reads
+
+        assertEquals(2f, readGain(), 0f)
+        assertTrue(prefs(EQ).reads > reads)
+    }
+
+    /** Minimal in-memory SharedPreferences that notifies listeners on commit/apply */
+    private class FakeSharedPreferences : SharedPreferences {
+        private val values = hashMapOf<String, Any?>()
+        private val listeners = mutableSetOf<SharedPreferences.OnSharedPreferenceChangeListener>()
+        var reads = 0
+            private set
+
+        /** Changes a value without notifying listeners, like a write from another process */
+        fun putSilently(key: String, value: Any?) {
+            values[key] = value
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun <T> read(key: String?, default: T): T {
+            reads++
+            return if(values.containsKey(key)) values[key] as T else default
+        }
+
+        override fun getAll(): MutableMap<String, *> = values.toMutableMap()
+        override fun getString(key: String?, defValue: String?): String? = read(key, defValue)
+        override fun getStringSet(key: String?, defValues: MutableSet<String>?): MutableSet<String>? = read(key, defValues)
+        override fun getInt(key: String?, defValue: Int): Int = read(key, defValue)
+        override fun getLong(key: String?, defValue: Long): Long = read(key, defValue)
+        override fun getFloat(key: String?, defValue: Float): Float = read(key, defValue)
+        override fun getBoolean(key: String?, defValue: Boolean): Boolean = read(key, defValue)
+        override fun contains(key: String?): Boolean = values.containsKey(key)
+        override fun edit(): SharedPreferences.Editor = Editor()
+
+        override fun registerOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+            listeners.add(listener)
+        }
+
+        override fun unregisterOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+            listeners.remove(listener)
+        }
+
+        private inner class Editor : SharedPreferences.Editor {
+            private val pending = hashMapOf<String, Any?>()
+
+            private fun put(key: String?, value: Any?) = apply { pending[key!!] = value }
+
+            override fun putString(key: String?, value: String?) = put(key, value)
+            override fun putStringSet(key: String?, values: MutableSet<String>?) = put(key, values)
+            override fun putInt(key: String?, value: Int) = put(key, value)
+            override fun putLong(key: String?, value: Long) = put(key, value)
+            override fun putFloat(key: String?, value: Float) = put(key, value)
+            override fun putBoolean(key: String?, value: Boolean) = put(key, value)
+            override fun remove(key: String?) = put(key, null)
+            override fun clear() = apply { values.keys.forEach { pending[it] = null } }
+
+            override fun commit(): Boolean {
+                pending.forEach { (key, value) ->
+                    if(value == null) values.remove(key) else values[key] = value
+                    listeners.forEach { it.onSharedPreferenceChanged(this@FakeSharedPreferences, key) }
+                }
+                pending.clear()
+                return true
+            }
+
+            override fun apply() {
+                commit()
+            }
+        }
+    }
+
+    companion object {
+        private const val EQ = "dsp_eq"
+        private const val BASS = "dsp_bass"
+        private const val GAIN = 1
+    }
+}
@@ -0,0 +1,122 @@
+package me.timschneeberger.rootlessjamesdsp.service
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class AdaptiveBufferControllerTest {
+    private var now = START_NS
+    private var underruns = 0
+
+    /**
+     * Feeds blocks of [PERIOD_NS] for [durationMs] at the given load and returns all size changes.
+     * [underrunsPerSecond] are added to the cumulative underrun counter.
+     */
+    private fun AdaptiveBufferController.run(durationMs: Long, load: Double = 0.5, underrunsPerSecond: Int = 0): List<Int> {
+        val changes = mutableListOf<Int>()
+        val blocks = durationMs * 1_000_000 / PERIOD_NS
+        for (i in 1..blocks) {
+            if (underrunsPerSecond > 0 && i % (1_000_000_000 / PERIOD_NS / underrunsPerSecond) == 0L)
+                underruns++
+            onBlock(underruns, (PERIOD_NS * load).toLong(), PERIOD_NS, now)?.let {
+                changes.add(it)
+                onPipelineRebuilt()
+                underruns = 0
+            }
+            now += PERIOD_NS
+        }
+        return changes
+    }
+
+    @Test
+    fun initialSize_isClampedToBounds() {
+        assertEquals(1024, AdaptiveBufferController(1024, 8192, 256).bufferSize)
+        assertEquals(8192, AdaptiveBufferController(1024, 8192, 65536).bufferSize)
+        assertEquals(2048, AdaptiveBufferController(1024, 8192, 2048).bufferSize)
+    }
+
+    @Test
+    fun noDecision_beforeEvaluationInterval() {
+        val controller = AdaptiveBufferController(1024, 8192, 2048)
+        assertNull(controller.onBlock(0, PERIOD_NS, PERIOD_NS, now))
+        assertNull(controller.onBlock(5, PERIOD_NS, PERIOD_NS, now + 500_000_000))
+    }
+
+    @Test
+    fun underruns_duringSettleWindow_areIgnored() {
+        val controller = AdaptiveBufferController(1024, 8192, 2048)
+        // The first evaluation happens after one second, which is still within the settle time
+        assertEquals(emptyList<Int>(), controller.run(1500, underrunsPerSecond = 5))
+        assertEquals(2048, controller.bufferSize)
+    }
+
+    @Test
+    fun underruns_growBuffer() {
+        val controller = AdaptiveBufferController(1024, 8192, 2048)
+        assertEquals(listOf(4096), controller.run(2500, underrunsPerSecond = 5))
+        assertEquals(4096, controller.bufferSize)
+    }
+
+    @Test
+    fun highLoad_growsBuffer() {
+        val controller = AdaptiveBufferController(1024, 8192, 2048)
+        assertEquals(listOf(4096), controller.run(2500, load = 0.9))
+    }
+
+    @Test
+    fun growth_isCappedAtMaximum() {
+        val controller = AdaptiveBufferController(1024, 6000, 4096)
+        val changes = controller.run(20_000, underrunsPerSecond = 5)
+        assertEquals(listOf(6000), changes)
+        assertEquals(6000, controller.bufferSize)
+    }
+
+    @Test
+    fun moderateLoad_holdsSize() {
+        val controller = AdaptiveBufferController(1024, 8192, 4096)
+        assertEquals(emptyList<Int>(), controller.run(60_000, load = 0.6))
+        assertEquals(4096, controller.bufferSize)
+    }
+
+    @Test
+    fun stableLowLoad_shrinksAfterHoldTime() {
+        val controller = AdaptiveBufferController(1024, 8192, 4096)
+        assertEquals(emptyList<Int>(), controller.run(14_000, load = 0.1))
+        assertEquals(listOf(2048), controller.run(2_000, load = 0.1))
+    }
+
+    @Test
+    fun shrink_isAlignedAndBoundedByMinimum() {
+        val controller = AdaptiveBufferController(1280, 8192, 3000)
+        val changes = controller.run(120_000, load = 0.1)
+        // Halving 3000 rounds down to a multiple of 128 (1408); the next step is clamped to the minimum
+        assertEquals(listOf(1408, 1280), changes)
+        changes.forEach { assertEquals(0, it % AdaptiveBufferController.SIZE_STEP) }
+    }
+
+    @Test
+    fun problem_restartsShrinkHold() {
+        val controller = AdaptiveBufferController(1024, 16384, 4096)
+        controller.run(10_000, load = 0.1)
+        assertEquals(listOf(8192), controller.run(2_000, load = 0.95))
+
+        // Needs another full hold time without problems before shrinking again
+        assertEquals(emptyList<Int>(), controller.run(14_000, load = 0.1))
+        assertEquals(listOf(4096), controller.run(2_000, load = 0.1))
+    }
+
+    @Test
+    fun pipelineRebuild_resetsUnderrunBaseline() {
+        val controller = AdaptiveBufferController(1024, 16384, 2048)
+        assertEquals(listOf(4096), controller.run(2500, underrunsPerSecond = 5))
+
+        // run() restarts the cumulative counter at zero after each rebuild, like a new AudioTrack does;
+        // the first underruns of the new track must count although the total is below the old one
+        assertEquals(listOf(8192), controller.run(2500, underrunsPerSecond = 5))
+    }
+
+    companion object {
+        private const val START_NS = 1_000_000_000L
+        private const val PERIOD_NS = 10_000_000L
+    }
+}
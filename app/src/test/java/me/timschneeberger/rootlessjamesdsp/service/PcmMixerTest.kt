@@ -0,0 +1,50 @@
+package me.timschneeberger.rootlessjamesdsp.service
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class PcmMixerTest {
+    private fun shorts(vararg values: Int) = ByteBuffer.allocateDirect(values.size * Short.SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+        .apply { values.forEach { putShort(it.toShort()) } }
+
+    private fun floats(vararg values: Float) = ByteBuffer.allocateDirect(values.size * Float.SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+        .apply { values.forEach { putFloat(it) } }
+
+    @Test
+    fun int16_isSummedAndSaturated() {
+        val target = shorts(1000, -1000, 30000, -30000)
+        PcmMixer.mixInt16(target, shorts(234, -234, 5000, -5000), 4)
+
+        assertEquals(1234.toShort(), target.getShort(0))
+        assertEquals((-1234).toShort(), target.getShort(2))
+        assertEquals(Short.MAX_VALUE, target.getShort(4))
+        assertEquals(Short.MIN_VALUE, target.getShort(6))
+    }
+
+    @Test
+    fun float_isSummedAndSaturated() {
+        val target = floats(0.25f, -0.25f, 0.75f, -0.75f)
+        PcmMixer.mixFloat(target, floats(0.5f, -0.5f, 0.5f, -0.5f), 4)
+
+        assertEquals(0.75f, target.getFloat(0), 0f)
+        assertEquals(-0.75f, target.getFloat(4), 0f)
+        assertEquals(1f, target.getFloat(8), 0f)
+        assertEquals(-1f, target.getFloat(12), 0f)
+    }
+
+    @Test
+    fun samplesBeyondCount_areUntouched() {
+        val target = shorts(1, 2, 3, 4)
+        // Position is at the end after filling; the mixer must use absolute indices
+        PcmMixer.mixInt16(target, shorts(10, 10, 10, 10), 2)
+
+        assertEquals(11.toShort(), target.getShort(0))
+        assertEquals(12.toShort(), target.getShort(2))
+        assertEquals(3.toShort(), target.getShort(4))
+        assertEquals(4.toShort(), target.getShort(6))
+    }
+}
@@ -0,0 +1,62 @@
+package me.timschneeberger.rootlessjamesdsp.session.dump
+
+import me.timschneeberger.rootlessjamesdsp.session.dump.utils.AudioPolicyDumpParser
+import org.junit.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.io.InputStream
+
+/**
+ * Compares the streaming parser against the previous whole-dump regex parser.
+ * Only runs when the `jdsp.benchmark` system property is set: `./gradlew test -Pbenchmark`
+ */
+class AudioPolicyDumpParserBenchmark {
+    // Previous implementation: the whole dump is read into a string and scanned with lazy multi-line matches
+    private val legacySessionRegex =
+        """Session Id:\s*(\d+)\s+UID:\s*(\d+)[\S\s]*?Attributes:[\S\s]*?Content type:\s*(\w+)\s*Usage:\s*(\w+)""".toRegex()
+    private val legacySessionRegex33 =
+        """Session ID:\s*(\d+);\s*uid \s*(\d+);[\S\s]*?Attributes:[\S\s]*?Content type:\s*(\w+)\s*Usage:\s*(\w+)""".toRegex()
+    private val legacyCaptureAllowedRegex = """allowPlaybackCapture=(\S+)(?:\s*,).+packageName=(\S+)""".toRegex()
+
+    private fun legacyParse(input: InputStream): Int {
+        val dump = input.reader().readText()
+        val sessions = hashSetOf<Int>()
+        var matches = legacySessionRegex.findAll(dump)
+        if (matches.count() <= 0)
+            matches = legacySessionRegex33.findAll(dump)
+        matches.forEach { sessions.add(it.groupValues[1].toInt()) }
+
+        val captureAllowLog = hashMapOf<String, Boolean>()
+        legacyCaptureAllowedRegex.findAll(dump).forEach {
+            captureAllowLog[it.groupValues[2].replace("shared:", "")] = it.groupValues[1] == "true"
+        }
+        return sessions.size
+    }
+
+    private inline fun measure(iterations: Int, block: () -> Unit): Long {
+        repeat(iterations) { block() }
+        val start = System.nanoTime()
+        repeat(iterations) { block() }
+        return (System.nanoTime() - start) / iterations
+    }
+
+    @Test
+    fun streamingVsLegacy() {
+        assumeTrue(System.getProperty("jdsp.benchmark") == "true")
+
+        for (api in AudioPolicyDumpParserTest.API_LEVELS) {
+            // Both parsers consume a byte stream, like the dumpsys pipe
+            val dump = javaClass.classLoader!!.getResource("dumps/audio_policy_api$api.txt")!!.readBytes()
+            val streaming = AudioPolicyDumpParser.parse(dump.inputStream().bufferedReader()) { null }
+            assertEquals(6, streaming.sessions.size)
+
+            val legacyNs = measure(ITERATIONS) { legacyParse(dump.inputStream()) }
+            val streamingNs = measure(ITERATIONS) { AudioPolicyDumpParser.parse(dump.inputStream().bufferedReader()) { null } }
+            println("API $api: legacy ${legacyNs / 1000} us/dump, streaming ${streamingNs / 1000} us/dump")
+        }
+    }
+
+    companion object {
+        private const val ITERATIONS = 20000
+    }
+}
@@ -0,0 +1,127 @@
+package me.timschneeberger.rootlessjamesdsp.session.dump
+
+import me.timschneeberger.rootlessjamesdsp.model.AudioSessionDumpEntry
+import me.timschneeberger.rootlessjamesdsp.session.dump.utils.AudioPolicyDumpParser
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.io.BufferedReader
+
+class AudioPolicyDumpParserTest {
+    private fun fixture(api: Int): String =
+        javaClass.classLoader!!.getResource("dumps/audio_policy_api$api.txt")!!.readText()
+
+    private fun parse(reader: BufferedReader) =
+        AudioPolicyDumpParser.parse(reader) { PACKAGES[it] }
+
+    @Test
+    fun sessions_areParsedForAllApiLevels() {
+        for (api in API_LEVELS) {
+            val dump = parse(fixture(api).reader().buffered())
+            assertEquals("API $api", EXPECTED_SESSIONS, dump.sessions)
+        }
+    }
+
+    @Test
+    fun captureLog_isParsedForAllApiLevels() {
+        for (api in API_LEVELS) {
+            val dump = parse(fixture(api).reader().buffered())
+            assertEquals("API $api", EXPECTED_CAPTURE_LOG, dump.capturePermissionLog)
+        }
+    }
+
+    @Test
+    fun wholeDump_isRead() {
+        for (api in API_LEVELS) {
+            val reader = fixture(api).reader().buffered()
+            parse(reader)
+            assertNull("API $api", reader.readLine())
+        }
+    }
+
+    @Test
+    fun captureLogBeforeClients_isParsed() {
+        for (api in API_LEVELS) {
+            // Move the capture log section to the top of the dump
+            val lines = fixture(api).lines()
+            val start = lines.indexOfFirst { it.startsWith("Allow playback capture log:") }
+            val end = lines.indexOfLast { it.contains("allowPlaybackCapture=") } + 1
+            val text = (lines.subList(start, end) + lines.subList(0, start) + lines.subList(end, lines.size))
+                .joinToString("\n")
+
+            val dump = parse(text.reader().buffered())
+            assertEquals("API $api", EXPECTED_SESSIONS, dump.sessions)
+            assertEquals("API $api", EXPECTED_CAPTURE_LOG, dump.capturePermissionLog)
+        }
+    }
+
+    @Test
+    fun missingCaptureLog_readsToEnd() {
+        for (api in API_LEVELS) {
+            val text = fixture(api).lines()
+                .filterNot { it.startsWith("Allow playback capture log:") || it.contains("allowPlaybackCapture=") }
+                .joinToString("\n")
+            val reader = text.reader().buffered()
+            val dump = parse(reader)
+
+            assertNull("API $api", reader.readLine())
+            assertEquals("API $api", 0, dump.capturePermissionLog.size)
+            assertNotNull("API $api", dump.sessions[999])
+            assertNotNull("API $api", dump.sessions[998])
+        }
+    }
+
+    @Test
+    fun unknownUid_fallsBackToUidString() {
+        val dump = AudioPolicyDumpParser.parse(fixture(29).reader().buffered()) { null }
+        assertEquals("10123", dump.sessions[129]?.packageName)
+    }
+
+    @Test
+    fun attributesOnSeparateLines_areJoined() {
+        val text = """
+            |  - Port Id: 1 Session Id: 42 UID: 10123
+            |  - Attributes: {
+            |      Content type: AUDIO_CONTENT_TYPE_MUSIC
+            |      Usage: AUDIO_USAGE_MEDIA }
+        """.trimMargin()
+        val dump = parse(text.reader().buffered())
+        assertEquals(AudioSessionDumpEntry(10123, "com.example.music", "AUDIO_USAGE_MEDIA", "AUDIO_CONTENT_TYPE_MUSIC"), dump.sessions[42])
+    }
+
+    @Test
+    fun emptyDump_returnsEmptyResult() {
+        val dump = parse("".reader().buffered())
+        assertEquals(0, dump.sessions.size)
+        assertEquals(0, dump.capturePermissionLog.size)
+    }
+
+    companion object {
+        val API_LEVELS = 29..34
+
+        private val PACKAGES = mapOf(
+            10123 to "com.example.music",
+            10087 to "com.example.navigation",
+            1000 to "android",
+            10201 to "com.example.game",
+        )
+
+        private val EXPECTED_SESSIONS = hashMapOf(
+            129 to AudioSessionDumpEntry(10123, "com.example.music", "AUDIO_USAGE_MEDIA", "AUDIO_CONTENT_TYPE_MUSIC"),
+            137 to AudioSessionDumpEntry(10087, "com.example.navigation", "AUDIO_USAGE_ASSISTANCE_NAVIGATION_GUIDANCE", "AUDIO_CONTENT_TYPE_SPEECH"),
+            145 to AudioSessionDumpEntry(1000, "android", "AUDIO_USAGE_ASSISTANCE_SONIFICATION", "AUDIO_CONTENT_TYPE_SONIFICATION"),
+            153 to AudioSessionDumpEntry(10201, "com.example.game", "AUDIO_USAGE_GAME", "AUDIO_CONTENT_TYPE_MOVIE"),
+            // Client history after the capture log
+            999 to AudioSessionDumpEntry(10999, "10999", "AUDIO_USAGE_MEDIA", "AUDIO_CONTENT_TYPE_MUSIC"),
+            998 to AudioSessionDumpEntry(10998, "10998", "AUDIO_USAGE_MEDIA", "AUDIO_CONTENT_TYPE_MUSIC"),
+        )
+
+        private val EXPECTED_CAPTURE_LOG = hashMapOf(
+            "com.example.music" to true,
+            "com.example.navigation" to false,
+            "android.uid.system" to true,
+            "com.example.game" to false,
+        )
+    }
+}
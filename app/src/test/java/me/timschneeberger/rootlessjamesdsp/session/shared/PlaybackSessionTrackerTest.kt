@@ -0,0 +1,105 @@
+package me.timschneeberger.rootlessjamesdsp.session.shared
+
+import android.media.AudioAttributes
+import me.timschneeberger.rootlessjamesdsp.model.AudioSessionDumpEntry
+import me.timschneeberger.rootlessjamesdsp.session.shared.PlaybackSessionTracker.PlayerKey
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PlaybackSessionTrackerTest {
+    private val lookups = mutableListOf<Int>()
+    private val tracker = PlaybackSessionTracker { uid -> lookups.add(uid); PACKAGES[uid] }
+
+    private val music = PlayerKey(1, 129, 10123, AudioAttributes.USAGE_MEDIA, AudioAttributes.CONTENT_TYPE_MUSIC)
+    private val game = PlayerKey(2, 153, 10201, AudioAttributes.USAGE_GAME, AudioAttributes.CONTENT_TYPE_MOVIE)
+
+    @Test
+    fun firstUpdate_buildsDump() {
+        assertTrue(tracker.updatePlayers(setOf(music, game)))
+
+        val sessions = tracker.dump!!.sessions
+        assertEquals(AudioSessionDumpEntry(10123, "com.example.music", "USAGE_MEDIA", "CONTENT_TYPE_MUSIC"), sessions[129])
+        assertEquals(AudioSessionDumpEntry(10201, "10201", "USAGE_GAME", "CONTENT_TYPE_MOVIE"), sessions[153])
+    }
+
+    @Test
+    fun emptyPlayerList_isAChangeFromInitialState() {
+        assertTrue(tracker.updatePlayers(emptySet()))
+        assertEquals(0, tracker.dump!!.sessions.size)
+        assertFalse(tracker.updatePlayers(emptySet()))
+    }
+
+    @Test
+    fun unchangedPlayers_triggerNoWork() {
+        tracker.updatePlayers(setOf(music, game))
+        val dump = tracker.dump
+        lookups.clear()
+
+        // Same players in a new set instance, e.g. after a state-only callback
+        assertFalse(tracker.updatePlayers(setOf(game.copy(), music.copy())))
+        assertSame(dump, tracker.dump)
+        assertTrue(lookups.isEmpty())
+    }
+
+    @Test
+    fun addedPlayer_rebuildsDump() {
+        tracker.updatePlayers(setOf(music))
+
+        assertTrue(tracker.updatePlayers(setOf(music, game)))
+        assertEquals(setOf(129, 153), tracker.dump!!.sessions.keys)
+    }
+
+    @Test
+    fun removedPlayer_rebuildsDump() {
+        tracker.updatePlayers(setOf(music, game))
+
+        assertTrue(tracker.updatePlayers(setOf(game)))
+        assertEquals(setOf(153), tracker.dump!!.sessions.keys)
+    }
+
+    @Test
+    fun changedAttributes_rebuildDump() {
+        tracker.updatePlayers(setOf(music))
+
+        assertTrue(tracker.updatePlayers(setOf(music.copy(usage = AudioAttributes.USAGE_GAME))))
+        assertEquals("USAGE_GAME", tracker.dump!!.sessions[129]!!.usage)
+    }
+
+    @Test
+    fun missingSessionId_fallsBackToDump() {
+        assertTrue(tracker.updatePlayers(setOf(music, game.copy(sid = 0))))
+        assertNull(tracker.dump)
+    }
+
+    @Test
+    fun missingUid_fallsBackToDump() {
+        assertTrue(tracker.updatePlayers(setOf(music.copy(uid = -1), game)))
+        assertNull(tracker.dump)
+    }
+
+    @Test
+    fun fallback_isKeptWhilePlayersAreUnchanged() {
+        val anonymized = setOf(music.copy(sid = 0, uid = -1))
+        tracker.updatePlayers(anonymized)
+
+        assertFalse(tracker.updatePlayers(anonymized))
+        assertNull(tracker.dump)
+    }
+
+    @Test
+    fun completePlayers_recoverFromFallback() {
+        tracker.updatePlayers(setOf(music.copy(sid = 0)))
+
+        assertTrue(tracker.updatePlayers(setOf(music)))
+        assertNotNull(tracker.dump)
+    }
+
+    companion object {
+        private val PACKAGES = mapOf(10123 to "com.example.music")
+    }
+}
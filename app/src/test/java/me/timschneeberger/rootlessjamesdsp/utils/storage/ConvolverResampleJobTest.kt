@@ -0,0 +1,70 @@
+package me.timschneeberger.rootlessjamesdsp.utils.storage
+
+import me.timschneeberger.rootlessjamesdsp.utils.storage.ConvolverResampleJob.Companion.isResampledOutput
+import me.timschneeberger.rootlessjamesdsp.utils.storage.ConvolverResampleJob.Companion.preferResampled
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class ConvolverResampleJobTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val rates = listOf(48000, 44100)
+
+    @Test
+    fun outputWithExistingSource_isDetected() {
+        folder.newFile("hall.wav")
+
+        assertTrue(isResampledOutput(folder.root, "48000_hall.wav", rates))
+        assertTrue(isResampledOutput(folder.root, "44100_hall.wav", rates))
+    }
+
+    @Test
+    fun userFileStartingWithDigits_isNotAnOutput() {
+        folder.newFile("2023_live.wav")
+        folder.newFile("live.wav")
+
+        assertFalse(isResampledOutput(folder.root, "2023_live.wav", rates))
+    }
+
+    @Test
+    fun outputWithoutSource_isNotAnOutput() {
+        assertFalse(isResampledOutput(folder.root, "48000_hall.wav", rates))
+    }
+
+    @Test
+    fun otherRate_isNotAnOutput() {
+        folder.newFile("hall.wav")
+
+        assertFalse(isResampledOutput(folder.root, "96000_hall.wav", rates))
+    }
+
+    @Test
+    fun sourceFile_isNotAnOutput() {
+        folder.newFile("hall.wav")
+
+        assertFalse(isResampledOutput(folder.root, "hall.wav", rates))
+        assertFalse(isResampledOutput(folder.root, "48000_", rates))
+    }
+
+    @Test
+    fun existingResampledCopy_isPreferred() {
+        val source = folder.newFile("hall.wav")
+        val resampled = folder.newFile("48000_hall.wav")
+
+        assertEquals(resampled, preferResampled(source, 48000))
+        assertEquals(source, preferResampled(source, 44100))
+    }
+
+    @Test
+    fun unfinishedResampledCopy_isIgnored() {
+        val source = folder.newFile("hall.wav")
+        folder.newFile("48000_hall.wav.part")
+
+        assertEquals(source, preferResampled(source, 48000))
+    }
+}
@@ -0,0 +1,95 @@
+package me.timschneeberger.rootlessjamesdsp.utils.storage
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ImpulseResponseCacheTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var cacheDir: File
+    private lateinit var source: File
+
+    private val samples = floatArrayOf(1f, 0.5f, -0.25f, 0.125f, 0f, -1f)
+    private val sourceInfo = intArrayOf(2, 3, 2, 42)
+
+    @Before
+    fun setUp() {
+        cacheDir = folder.newFolder("cache")
+        source = folder.newFile("impulse.wav").apply { writeBytes(ByteArray(64) { it.toByte() }) }
+    }
+
+    /** Looks up [source]; [loader] receives the info array it has to fill, like the native reader does */
+    private fun load(sampleRate: Int = 48000, info: IntArray = IntArray(4), loader: (IntArray) -> FloatArray?) =
+        ImpulseResponseCache.getOrLoad(cacheDir, source, sampleRate, 0, intArrayOf(-80, -100, 0, 0, 0, 0), info) { loader(info) }
+
+    private fun loadFromSource(info: IntArray): FloatArray {
+        sourceInfo.copyInto(info)
+        return samples.copyOf()
+    }
+
+    @Test
+    fun roundTrip_returnsStoredDataWithoutLoader() {
+        val first = load { loadFromSource(it) }
+        assertArrayEquals(samples, first, 0f)
+
+        val info = IntArray(4)
+        var loaderCalls = 0
+        val second = load(info = info) { loaderCalls++; null }
+
+        assertEquals(0, loaderCalls)
+        assertArrayEquals(samples, second, 0f)
+        assertArrayEquals(sourceInfo, info)
+    }
+
+    @Test
+    fun roundTrip_leavesNoTemporaryFiles() {
+        load { loadFromSource(it) }
+
+        val files = cacheDir.listFiles()!!
+        assertEquals(1, files.size)
+        assertEquals(false, files[0].name.endsWith(".tmp"))
+    }
+
+    @Test
+    fun differentSampleRate_misses() {
+        load { loadFromSource(it) }
+
+        var loaderCalls = 0
+        load(sampleRate = 44100) { loaderCalls++; null }
+        assertEquals(1, loaderCalls)
+    }
+
+    @Test
+    fun modifiedSource_misses() {
+        load { loadFromSource(it) }
+
+        source.writeBytes(ByteArray(128) { (it * 3).toByte() })
+        var loaderCalls = 0
+        load { loaderCalls++; null }
+        assertEquals(1, loaderCalls)
+    }
+
+    @Test
+    fun failedLoad_isNotCached() {
+        assertNull(load { null })
+        assertEquals(0, cacheDir.listFiles()!!.size)
+    }
+
+    @Test
+    fun corruptEntry_isDroppedAndReloaded() {
+        load { loadFromSource(it) }
+        cacheDir.listFiles()!!.single().writeBytes(ByteArray(7))
+
+        val info = IntArray(4)
+        val data = load(info = info) { loadFromSource(it) }
+        assertArrayEquals(samples, data, 0f)
+        assertArrayEquals(sourceInfo, info)
+    }
+}